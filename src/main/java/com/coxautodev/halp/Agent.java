@@ -0,0 +1,95 @@
+package com.coxautodev.halp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Arrays.asList;
+
+/**
+ * A java agent that analyzes classes as the JVM loads them, so the classes an
+ * integration test actually loaded can be checked without scanning the disk.
+ *
+ * Add -javaagent:halp.jar=blitzen.** to the JVM arguments (the argument is a
+ * comma separated list of includes, all classes by default) and check
+ * Agent.loadedClasses() with the usual assertions. The transformer never
+ * changes a class; it hands the bytes to a background thread for analysis.
+ */
+public class Agent {
+
+    private static final Map<String, ClassInfo> loaded = new ConcurrentHashMap();
+
+    private static final ExecutorService analyzer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "halp-agent");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static volatile boolean installed;
+
+    static ClassFileTransformer transformer(Patterns.PatternMatcher includes) {
+        return new ClassFileTransformer() {
+            public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                    ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+                if (className != null && includes.matches(className.replace('/', '.'))) {
+                    analyzer.execute(() -> analyze(classfileBuffer));
+                }
+                return null;
+            }
+        };
+    }
+
+    private static void analyze(byte[] bytes) {
+        try {
+            ClassInfo info = Analyzer.create(new ByteArrayInputStream(bytes));
+            loaded.put(info.name(), info);
+        }
+        catch (IOException | RuntimeException e) {
+            // class files the analyzer cannot read are left out of the graph
+        }
+    }
+
+    public static void install(Instrumentation inst, Iterable<String> includes) {
+        inst.addTransformer(transformer(Patterns.pattern(includes)));
+        installed = true;
+    }
+
+    private static List<String> includes(String args) {
+        return args == null || args.trim().isEmpty() ? asList("**") : asList(args.split(","));
+    }
+
+    public static void premain(String args, Instrumentation inst) {
+        install(inst, includes(args));
+    }
+
+    public static void agentmain(String args, Instrumentation inst) {
+        install(inst, includes(args));
+    }
+
+    public static boolean isInstalled() {
+        return installed;
+    }
+
+    /**
+     * Returns the classes loaded so far, after waiting for every class handed
+     * to the background thread to be analyzed.
+     */
+    public static List<ClassInfo> loadedClasses() {
+        try {
+            analyzer.submit(() -> {}).get();
+        }
+        catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        return new ArrayList(loaded.values());
+    }
+}
@@ -5,6 +5,7 @@ import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -13,8 +14,11 @@ import org.objectweb.asm.TypePath;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,6 +30,28 @@ import static java.util.Collections.emptySet;
  */
 public class Analyzer {
 
+    /**
+     * Changes whenever the same class file may yield different dependencies,
+     * so results stored elsewhere, such as jar indexes, can tell they are
+     * stale. 2 added annotations on classes and fields, 3 the methods and
+     * fields behind invokedynamic, such as method references.
+     */
+    public static final int VERSION = 3;
+
+    /**
+     * How much of a class file is analyzed. API only looks at the types that
+     * appear in the class's signatures: superclass, interfaces, fields, method
+     * descriptors, generic signatures, throws clauses and annotations. Method
+     * bodies are not read at all, which is considerably faster and enough for
+     * rules about contracts. PUBLIC_API additionally ignores private fields
+     * and methods.
+     */
+    public enum Depth {
+        FULL,
+        API,
+        PUBLIC_API
+    }
+
     private static final Pattern singlePattern = Pattern.compile("\\[*L([\\w/$]+);");
 
     private static final Pattern multiPattern = Pattern.compile("(?<=L)([\\w/$]+)(?=[;<])");
@@ -94,13 +120,37 @@ public class Analyzer {
         }
     }
 
+    private static class AnalysisFieldVisitor extends FieldVisitor {
+
+        private final Collector collector;
+
+        AnalysisFieldVisitor(Collector collector) {
+            super(Opcodes.ASM5);
+            this.collector = collector;
+        }
+
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            collector.collect(classNodeFromDescriptor(desc));
+            return new AnalysisAnnotationVisitor(collector);
+        }
+
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String desc, boolean visible) {
+            collector.collect(classNodeFromDescriptor(desc));
+            return new AnalysisAnnotationVisitor(collector);
+        }
+    }
+
     private static class AnalysisMethodVisitor extends MethodVisitor {
 
         private final Collector collector;
+        private final MemberGraph members;
+        private final int member;
 
-        AnalysisMethodVisitor(Collector collector) {
+        AnalysisMethodVisitor(Collector collector, MemberGraph members, int member) {
             super(Opcodes.ASM5);
             this.collector = collector;
+            this.members = members;
+            this.member = member;
         }
 
         public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
@@ -138,19 +188,48 @@ public class Analyzer {
         }
 
         public void visitFieldInsn(int opcode, String owner, String name, String desc) {
-            collector.collect(classNodeFromSingleType(owner));
+            String ownerNode = classNodeFromSingleType(owner);
+            collector.collect(ownerNode);
             collector.collect(classNodeFromDescriptor(desc));
+            if (members != null) {
+                members.edge(member, members.member(ownerNode, name, desc));
+            }
         }
 
         public void visitMethodInsn(int opcode, String owner, String name, String desc) {
-            collector.collect(classNodeFromSingleType(owner));
+            String ownerNode = classNodeFromSingleType(owner);
+            collector.collect(ownerNode);
             collector.collect(classNodeFromDescriptor(desc));
+            if (members != null) {
+                members.edge(member, members.member(ownerNode, name, desc));
+            }
         }
 
         public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
             visitMethodInsn(opcode, owner, name, desc);
         }
 
+        /*
+         * Lambdas and method references compile to invokedynamic, whose only
+         * mention of the target is a Handle among the bootstrap arguments.
+         */
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            collector.collect(classNodeFromDescriptor(desc));
+            for (Object arg : bsmArgs) {
+                if (arg instanceof Handle) {
+                    Handle handle = (Handle)arg;
+                    String ownerNode = classNodeFromSingleType(handle.getOwner());
+                    collector.collect(ownerNode);
+                    collector.collect(classNodeFromDescriptor(handle.getDesc()));
+                    if (members != null) {
+                        members.edge(member, members.member(ownerNode, handle.getName(), handle.getDesc()));
+                    }
+                } else if (arg instanceof Type) {
+                    collector.collect(classNodeFromDescriptor(((Type)arg).getDescriptor()));
+                }
+            }
+        }
+
         public void visitLdcInsn(Object cst) {
             if (cst instanceof Type) {
                 collector.collect(classNodeFromDescriptor(((Type)cst).getClassName()));
@@ -172,18 +251,45 @@ public class Analyzer {
     private static class AnalysisVisitor extends ClassVisitor {
 
         private String className;
-        private final Set<String> dependencies = new HashSet();
+        // each dependency's slot in counts, which holds how often it is referenced
+        private final Map<String, Integer> dependencies = new HashMap();
+        private int[] counts = new int[16];
+
+        private final MemberGraph members;
+        private final Depth depth;
+
+        private void reference(String name) {
+            Integer slot = dependencies.get(name);
+            if (slot == null) {
+                slot = dependencies.size();
+                dependencies.put(name, slot);
+                if (slot >= counts.length) {
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+            }
+            counts[slot]++;
+        }
 
         private Collector notifier = new Collector() {
             public void collect(String name) {
-                dependencies.add(name);
+                reference(name);
             }
             public void collect(Set<String> names) {
-                dependencies.addAll(names);
+                for (String name : names) {
+                    reference(name);
+                }
             }
         };
 
-        AnalysisVisitor() { super(Opcodes.ASM5); }
+        AnalysisVisitor(MemberGraph members, Depth depth) {
+            super(Opcodes.ASM5);
+            this.members = members;
+            this.depth = depth;
+        }
+
+        private boolean skipped(int access) {
+            return depth == Depth.PUBLIC_API && (access & Opcodes.ACC_PRIVATE) != 0;
+        }
 
         public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
             className = classNode(name);
@@ -203,7 +309,8 @@ public class Analyzer {
         }
 
         public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-            return null;
+            notifier.collect(classNodeFromDescriptor(desc));
+            return new AnalysisAnnotationVisitor(notifier);
         }
 
         public void visitAttribute(Attribute attr) {}
@@ -220,12 +327,18 @@ public class Analyzer {
         }
 
         public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            if (skipped(access)) {
+                return null;
+            }
             notifier.collect(classNodeFromDescriptor(desc));
             notifier.collect(classNodeFromDescriptor(signature));
-            return null;
+            return new AnalysisFieldVisitor(notifier);
         }
 
         public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            if (skipped(access)) {
+                return null;
+            }
             notifier.collect(classNodeFromDescriptor(desc));
             notifier.collect(classNodeFromDescriptor(signature));
 
@@ -235,7 +348,8 @@ public class Analyzer {
                 }
             }
 
-            return new AnalysisMethodVisitor(notifier);
+            int member = members != null ? members.member(className, name, desc) : -1;
+            return new AnalysisMethodVisitor(notifier, members, member);
         }
 
         public void visitEnd() {
@@ -245,23 +359,51 @@ public class Analyzer {
 
         public ClassInfo output() {
             final String name = className;
-            final Set<String> deps = Collections.unmodifiableSet(new HashSet(dependencies));
+            // the slot map doubles as the dependency set, so nothing is copied
+            final Map<String, Integer> slots = dependencies;
+            final Set<String> deps = Collections.unmodifiableSet(slots.keySet());
+            final int[] weights = counts;
+            final Depth analyzed = depth;
             return new ClassInfo() {
                 @Override public String name() { return name; }
                 @Override public Set<String> dependencies() { return deps; }
+                @Override public int weight(String dependency) {
+                    Integer slot = slots.get(dependency);
+                    return slot != null ? weights[slot] : 0;
+                }
+                @Override public Depth depth() { return analyzed; }
 
                 @Override
                 public String toString() {
-                    return className + ":" + dependencies;
+                    return className + ":" + dependencies.keySet();
                 }
             };
         }
     }
 
     public static ClassInfo create(InputStream in) throws IOException {
+        return create(in, Depth.FULL);
+    }
+
+    /**
+     * Analyzes the class and, if members is not null, records which of its
+     * methods use which methods and fields.
+     */
+    public static ClassInfo create(InputStream in, MemberGraph members) throws IOException {
         ClassReader reader = new ClassReader(in);
-        AnalysisVisitor v = new AnalysisVisitor();
+        AnalysisVisitor v = new AnalysisVisitor(members, Depth.FULL);
         reader.accept(v, 0);
         return v.output();
     }
+
+    /**
+     * Analyzes the class to the given depth. Anything but Depth.FULL skips
+     * method bodies and debug information while reading.
+     */
+    public static ClassInfo create(InputStream in, Depth depth) throws IOException {
+        ClassReader reader = new ClassReader(in);
+        AnalysisVisitor v = new AnalysisVisitor(null, depth);
+        reader.accept(v, depth == Depth.FULL ? 0 : ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return v.output();
+    }
 }
@@ -0,0 +1,185 @@
+package com.coxautodev.halp;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dependencies between the jars and directories on the classpath, built
+ * while scanning. Each class is attributed to the artifact it is found in
+ * first, and only a set of referenced class ids is kept per artifact, so
+ * hundreds of jars can be summarized without holding the class-level graph.
+ *
+ * Artifacts are identified by their path, or by their file name alone (e.g.
+ * "guava-19.0.jar") where that is unambiguous enough for the caller.
+ */
+public class ArtifactGraph {
+
+    private final String[] artifacts;
+    private final int[] classCounts;
+    private final ClassGraph graph;
+
+    private ArtifactGraph(String[] artifacts, int[] classCounts, ClassGraph graph) {
+        this.artifacts = artifacts;
+        this.classCounts = classCounts;
+        this.graph = graph;
+    }
+
+    private static class Builder {
+        final List<String> artifacts = new ArrayList();
+        final List<BitSet> referenced = new ArrayList();
+        int[] classCounts = new int[16];
+        final Map<String, Integer> ids = new HashMap();
+        int[] definedIn = new int[1024];
+        int current = -1;
+
+        Builder() {
+            Arrays.fill(definedIn, -1);
+        }
+
+        void enter(int artifact, URL url) {
+            artifacts.add(Scanner.path(url));
+            referenced.add(new BitSet());
+            if (artifact >= classCounts.length) {
+                classCounts = Arrays.copyOf(classCounts, classCounts.length * 2);
+            }
+            current = artifact;
+        }
+
+        int id(String name) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = ids.size();
+                ids.put(name, id);
+                if (id >= definedIn.length) {
+                    int old = definedIn.length;
+                    definedIn = Arrays.copyOf(definedIn, old * 2);
+                    Arrays.fill(definedIn, old, definedIn.length, -1);
+                }
+            }
+            return id;
+        }
+
+        void add(ClassInfo c) {
+            int v = id(c.name());
+            if (definedIn[v] < 0) {
+                definedIn[v] = current;
+            }
+            classCounts[current]++;
+            BitSet uses = referenced.get(current);
+            for (String d : c.dependencies()) {
+                if (d != null && !Core.isBuiltin(d)) {
+                    uses.set(id(d));
+                }
+            }
+        }
+
+        ArtifactGraph build() {
+            String[] names = artifacts.toArray(new String[0]);
+            List<ClassInfo> nodes = new ArrayList();
+            for (int a = 0; a < names.length; a++) {
+                Set<String> deps = new HashSet();
+                BitSet uses = referenced.get(a);
+                for (int v = uses.nextSetBit(0); v >= 0; v = uses.nextSetBit(v + 1)) {
+                    int b = definedIn[v];
+                    if (b >= 0 && b != a) {
+                        deps.add(names[b]);
+                    }
+                }
+                nodes.add(Core.classInfo(names[a], deps));
+            }
+            return new ArtifactGraph(names, Arrays.copyOf(classCounts, names.length), ClassGraph.of(nodes));
+        }
+    }
+
+    public static ArtifactGraph build(Iterable<String> includes, Scanner.URLSource source) {
+        Builder builder = new Builder();
+        Patterns.PatternMatcher matcher = Patterns.pattern(includes);
+        Scanner.analyze(matcher::matches, builder::add, builder::enter, source);
+        return builder.build();
+    }
+
+    public static ArtifactGraph build(Iterable<String> includes) {
+        return build(includes, Scanner.defaultSource);
+    }
+
+    /**
+     * The artifacts in classpath order.
+     */
+    public List<String> artifacts() {
+        return Arrays.asList(artifacts);
+    }
+
+    /**
+     * The graph of artifacts, e.g. to find cycles between jars or to export it.
+     */
+    public ClassGraph graph() {
+        return graph;
+    }
+
+    private int find(String artifact) {
+        for (int a = 0; a < artifacts.length; a++) {
+            if (artifacts[a].equals(artifact)) {
+                return a;
+            }
+        }
+        for (int a = 0; a < artifacts.length; a++) {
+            if (new File(artifacts[a]).getName().equals(artifact)) {
+                return a;
+            }
+        }
+        throw new IllegalArgumentException("no artifact " + artifact + " on the classpath");
+    }
+
+    /**
+     * The number of included classes found in the artifact.
+     */
+    public int classCount(String artifact) {
+        return classCounts[find(artifact)];
+    }
+
+    /**
+     * The artifacts whose classes use a class defined in the given one.
+     */
+    public List<String> users(String artifact) {
+        return inClasspathOrder(graph.dependents(artifacts[find(artifact)]));
+    }
+
+    /**
+     * The artifacts defining classes that the given one uses.
+     */
+    public List<String> dependencies(String artifact) {
+        return inClasspathOrder(graph.dependencies(artifacts[find(artifact)]));
+    }
+
+    /**
+     * Artifacts with included classes that no other artifact uses.
+     */
+    public List<String> unused() {
+        List<String> unused = new ArrayList();
+        for (int a = 0; a < artifacts.length; a++) {
+            if (classCounts[a] > 0 && graph.dependents(artifacts[a]).isEmpty()) {
+                unused.add(artifacts[a]);
+            }
+        }
+        return unused;
+    }
+
+    private List<String> inClasspathOrder(Collection<String> found) {
+        List<String> ordered = new ArrayList();
+        for (String a : artifacts) {
+            if (found.contains(a)) {
+                ordered.add(a);
+            }
+        }
+        return ordered;
+    }
+}
@@ -1,47 +1,193 @@
 package com.coxautodev.halp;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.fail;
 
 public class Assertions {
 
-    public static void assertNoClassCycles(List<ClassInfo> deps) {
-        List<String> cycle = Core.firstClassCycle(deps);
+    /*
+     * Failure messages show Violations.SHOWN violations per module. Setting
+     * halp.violations.file additionally writes the full list to that file.
+     */
+    private static void failWith(String header, Violations violations) {
+        StringBuilder msg = new StringBuilder(header).append(" (").append(violations.size()).append("):\n");
+        msg.append(violations.render(Violations.SHOWN));
+        String file = System.getProperty("halp.violations.file");
+        if (file != null) {
+            try {
+                violations.export(new File(file));
+                msg.append("full list written to ").append(file);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        fail(msg.toString());
+    }
+
+    private static void assertNoClassCycle(List<String> cycle) {
         if (cycle != null) {
             fail("found at least one cycle representing mutual dependency between top-level classes: " + cycle);
         }
     }
 
-    public static void assertNoPackageCycles(List<ClassInfo> deps) {
-        List<String> cycle = Core.firstPackageCycle(deps);
+    private static void assertNoPackageCycle(List<String> cycle) {
         if (cycle != null) {
             fail("found at least one cycle representing mutual dependency between top-level classes: " + cycle);
         }
     }
 
-    public static void assertModuleBoundaries(Collection<ClassInfo> classpath, Collection<Module> modules) {
+    private static void assertNoUndeclared(Collection<Core.ModuleInspection> inspections) {
+
+        Violations violations = Violations.undeclared(inspections);
+        if (!violations.isEmpty()) {
+            failWith("the following modules use dependencies but do not not declare them", violations);
+        }
+    }
+
+    public static void assertNoClassCycles(List<ClassInfo> deps) {
+        assertNoClassCycle(Core.firstClassCycle(deps));
+    }
+
+    /**
+     * Checks the classes matching includes, asking a running daemon if one is
+     * configured and analyzing the classpath otherwise.
+     */
+    public static void assertNoClassCycles(String...includes) {
+        Daemon.Client daemon = Daemon.client();
+        if (daemon != null) {
+            try {
+                assertNoClassCycle(daemon.firstClassCycle(asList(includes)));
+                return;
+            }
+            catch (Daemon.Refused e) {
+                // the daemon cannot answer for these classes
+            }
+        }
+        assertNoClassCycles(Core.analyzeClasspath(includes));
+    }
+
+    public static void assertNoClassCycles(Graph graph) {
+        assertNoClassCycle(graph.firstClassCycle());
+    }
 
-        String msg = modules.stream()
+    public static void assertNoPackageCycles(List<ClassInfo> deps) {
+        assertNoPackageCycle(Core.firstPackageCycle(deps));
+    }
+
+    /**
+     * Checks the classes matching includes, asking a running daemon if one is
+     * configured and analyzing the classpath otherwise.
+     */
+    public static void assertNoPackageCycles(String...includes) {
+        Daemon.Client daemon = Daemon.client();
+        if (daemon != null) {
+            try {
+                assertNoPackageCycle(daemon.firstPackageCycle(asList(includes)));
+                return;
+            }
+            catch (Daemon.Refused e) {
+                // the daemon cannot answer for these classes
+            }
+        }
+        assertNoPackageCycles(Core.analyzeClasspath(includes));
+    }
+
+    public static void assertNoPackageCycles(Graph graph) {
+        assertNoPackageCycle(graph.firstPackageCycle());
+    }
+
+    /**
+     * Asserts that no class depends on a class in a higher layer. Layers are
+     * given from the lowest to the highest, e.g. "ports.**", "core.**", "app.**".
+     */
+    public static void assertLayers(List<ClassInfo> deps, String...layers) {
+        List<Core.LayerViolation> violations = Core.inspectLayers(deps, asList(layers)).violations();
+        if (!violations.isEmpty()) {
+            failWith("the following dependencies point to a higher layer", Violations.layers(violations));
+        }
+    }
+
+    public static void assertModuleBoundaries(Collection<ClassInfo> classpath, Collection<Module> modules) {
+        assertNoUndeclared(modules.stream()
             .map(m -> Core.inspectModule(classpath, m))
-            .filter(r -> r.undeclared().size() > 0)
-            .map(r -> r.moduleName() + ":" + r.undeclared())
-            .reduce((h, v) -> h + ", " + v + "\n")
-            .orElseGet(() -> "");
+            .collect(toList()));
+    }
 
-        if (!msg.isEmpty()) {
-            fail("the following modules use dependencies but do not not declare them: " + msg);
+    /**
+     * Checks the classes included by the modules, asking a running daemon if
+     * one is configured and analyzing the classpath otherwise.
+     */
+    public static void assertModuleBoundaries(Collection<Module> modules) {
+        Daemon.Client daemon = Daemon.client();
+        if (daemon != null) {
+            Set<String> includes = Modules.includes(modules);
+            List<Core.ModuleInspection> inspections;
+            try {
+                inspections = modules.stream()
+                    .map(m -> daemon.inspectModule(includes, m))
+                    .collect(toList());
+            }
+            catch (Daemon.Refused e) {
+                // the daemon cannot answer for these classes
+                inspections = null;
+            }
+            if (inspections != null) {
+                assertNoUndeclared(inspections);
+                return;
+            }
+        }
+        assertModuleBoundaries(Core.analyzeClasspath(modules), modules);
+    }
+
+    public static void assertModuleBoundaries(Graph graph, Collection<Module> modules) {
+        assertNoUndeclared(graph.inspectModules(modules));
+    }
+
+    private static void assertNoUnmodularized(Set<String> found) {
+        if (!found.isEmpty()) {
+            failWith("meta-module contains classes that are not covered by a module boundary",
+                new Violations().addAll("meta-module", found));
         }
     }
 
     public static void assertNoUnmodularizedBehavior(Collection<ClassInfo> classpath, Collection<Module> modules) {
+        assertNoUnmodularized(Core.findUnmodularizedBehavior(classpath, modules));
+    }
+
+    public static void assertNoUnmodularizedBehavior(Graph graph, Collection<Module> modules) {
+        assertNoUnmodularized(graph.findUnmodularizedBehavior(modules));
+    }
 
-        Set<String> found = Core.findUnmodularizedBehavior(classpath, modules);
+    /**
+     * Asserts that every class matching includes is either on the classpath
+     * once or only as identical copies.
+     */
+    public static void assertNoClasspathConflicts(String...includes) {
+        Violations violations = new Violations();
+        for (Core.Conflict c : Core.findClasspathConflicts(includes)) {
+            violations.addAll(c.className(), c.artifacts());
+        }
+        if (!violations.isEmpty()) {
+            failWith("the following classes appear on the classpath with different bytes", violations);
+        }
+    }
 
-        if (!found.isEmpty()) {
-            fail("meta-module contains classes that are not covered by a module boundary: " + found);
+    /**
+     * Runs all the checks in the spec against the graph at once and fails with
+     * a report of everything that did not pass.
+     */
+    public static void assertVerified(Graph graph, Graph.Spec spec) {
+        Graph.Report report = graph.verify(spec);
+        if (!report.passed()) {
+            fail("verification failed:\n" + report);
         }
     }
 }
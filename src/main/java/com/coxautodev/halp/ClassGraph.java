@@ -0,0 +1,420 @@
+package com.coxautodev.halp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A compact, immutable dependency graph. Every class name (analyzed or only
+ * referenced) is interned to an int id in sorted name order, and both the
+ * outgoing and the incoming edges are stored as sorted adjacency arrays, so
+ * dependents can be found as cheaply as dependencies.
+ */
+public class ClassGraph {
+
+    final String[] names;
+    final boolean[] analyzed;
+    private final Map<String, Integer> ids;
+
+    /* adjacency of node n is out[outStart[n]] until out[outStart[n+1]] */
+    final int[] outStart;
+    final int[] out;
+    final int[] inStart;
+    final int[] in;
+
+    private ClassGraph(String[] names, boolean[] analyzed, Map<String, Integer> ids, long[] edges, int edgeCount) {
+        this.names = names;
+        this.analyzed = analyzed;
+        this.ids = ids;
+
+        int n = names.length;
+        this.outStart = new int[n + 1];
+        this.out = new int[edgeCount];
+        this.inStart = new int[n + 1];
+        this.in = new int[edgeCount];
+
+        // edges are sorted by source and then target
+        for (int e = 0; e < edgeCount; e++) {
+            int from = (int) (edges[e] >>> 32);
+            int to = (int) edges[e];
+            outStart[from + 1]++;
+            inStart[to + 1]++;
+            out[e] = to;
+        }
+        for (int i = 0; i < n; i++) {
+            outStart[i + 1] += outStart[i];
+            inStart[i + 1] += inStart[i];
+        }
+
+        // filling in order of source keeps each incoming list sorted too
+        int[] fill = Arrays.copyOf(inStart, n);
+        for (int e = 0; e < edgeCount; e++) {
+            int to = (int) edges[e];
+            in[fill[to]++] = (int) (edges[e] >>> 32);
+        }
+    }
+
+    public static ClassGraph of(Collection<ClassInfo> classes) {
+
+        Set<String> all = new HashSet();
+        for (ClassInfo c : classes) {
+            all.add(c.name());
+            for (String d : c.dependencies()) {
+                if (d != null) {
+                    all.add(d);
+                }
+            }
+        }
+
+        String[] names = all.toArray(new String[0]);
+        Arrays.sort(names);
+        Map<String, Integer> ids = new HashMap(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+
+        boolean[] analyzed = new boolean[names.length];
+        int size = 0;
+        for (ClassInfo c : classes) {
+            size += c.dependencies().size();
+        }
+        long[] edges = new long[size];
+        int count = 0;
+        for (ClassInfo c : classes) {
+            int from = ids.get(c.name());
+            analyzed[from] = true;
+            for (String d : c.dependencies()) {
+                if (d != null) {
+                    int to = ids.get(d);
+                    if (to != from) {
+                        edges[count++] = ((long) from << 32) | to;
+                    }
+                }
+            }
+        }
+
+        return new ClassGraph(names, analyzed, ids, edges, dedupe(edges, count));
+    }
+
+    /* sorts the first count edges and removes duplicates, returning the new count */
+    private static int dedupe(long[] edges, int count) {
+        Arrays.sort(edges, 0, count);
+        int unique = 0;
+        for (int e = 0; e < count; e++) {
+            if (unique == 0 || edges[unique - 1] != edges[e]) {
+                edges[unique++] = edges[e];
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Collapses nodes that map to the same identifier, e.g. classes into their
+     * package. Edges between nodes that collapse into the same identifier are
+     * dropped.
+     */
+    public ClassGraph map(Function<String, String> f) {
+
+        String[] mapped = new String[names.length];
+        Set<String> all = new HashSet();
+        for (int i = 0; i < names.length; i++) {
+            mapped[i] = f.apply(names[i]);
+            all.add(mapped[i]);
+        }
+
+        String[] targetNames = all.toArray(new String[0]);
+        Arrays.sort(targetNames);
+        Map<String, Integer> targetIds = new HashMap(targetNames.length * 2);
+        for (int i = 0; i < targetNames.length; i++) {
+            targetIds.put(targetNames[i], i);
+        }
+
+        int[] target = new int[names.length];
+        boolean[] targetAnalyzed = new boolean[targetNames.length];
+        for (int i = 0; i < names.length; i++) {
+            target[i] = targetIds.get(mapped[i]);
+            targetAnalyzed[target[i]] |= analyzed[i];
+        }
+
+        long[] edges = new long[out.length];
+        int count = 0;
+        for (int from = 0; from < names.length; from++) {
+            for (int e = outStart[from]; e < outStart[from + 1]; e++) {
+                int a = target[from];
+                int b = target[out[e]];
+                if (a != b) {
+                    edges[count++] = ((long) a << 32) | b;
+                }
+            }
+        }
+
+        return new ClassGraph(targetNames, targetAnalyzed, targetIds, edges, dedupe(edges, count));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public int edgeCount() {
+        return out.length;
+    }
+
+    /**
+     * Returns the id of the named node, or -1 if it is not part of the graph.
+     */
+    public int id(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Whether the node was analyzed, as opposed to only being referenced.
+     */
+    public boolean analyzed(int id) {
+        return analyzed[id];
+    }
+
+    private Set<String> names(int[] adjacency, int from, int to) {
+        Set<String> s = new HashSet();
+        for (int e = from; e < to; e++) {
+            s.add(names[adjacency[e]]);
+        }
+        return s;
+    }
+
+    public Set<String> dependencies(String name) {
+        int id = id(name);
+        return id < 0 ? new HashSet() : names(out, outStart[id], outStart[id + 1]);
+    }
+
+    public Set<String> dependents(String name) {
+        int id = id(name);
+        return id < 0 ? new HashSet() : names(in, inStart[id], inStart[id + 1]);
+    }
+
+    /**
+     * Returns the given nodes together with everything that transitively
+     * depends on them.
+     */
+    public Set<String> transitiveDependents(Collection<String> changed) {
+
+        boolean[] seen = new boolean[names.length];
+        int[] queue = new int[names.length];
+        int head = 0, tail = 0;
+
+        for (String c : changed) {
+            int id = id(c);
+            if (id >= 0 && !seen[id]) {
+                seen[id] = true;
+                queue[tail++] = id;
+            }
+        }
+
+        while (head < tail) {
+            int n = queue[head++];
+            for (int e = inStart[n]; e < inStart[n + 1]; e++) {
+                int d = in[e];
+                if (!seen[d]) {
+                    seen[d] = true;
+                    queue[tail++] = d;
+                }
+            }
+        }
+
+        Set<String> result = new HashSet(changed);
+        for (int i = 0; i < tail; i++) {
+            result.add(names[queue[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the graph as class metadata, one entry per analyzed node.
+     */
+    public List<ClassInfo> classInfo() {
+        List<ClassInfo> classes = new ArrayList();
+        for (int i = 0; i < names.length; i++) {
+            if (analyzed[i]) {
+                classes.add(Core.classInfo(names[i], names(out, outStart[i], outStart[i + 1])));
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Finds the strongly connected components with an iterative Tarjan
+     * traversal in O(V+E). Returns the component of each node; components are
+     * numbered in dependency order, so a node's dependencies are always in a
+     * component with the same or a lower number.
+     */
+    public int[] components() {
+
+        int n = names.length;
+        int[] component = new int[n];
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callStack = new int[n];
+        int[] edge = new int[n];
+        int sp = 0, counter = 0, components = 0;
+
+        Arrays.fill(index, -1);
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int csp = 0;
+            callStack[csp++] = root;
+            index[root] = low[root] = counter++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            edge[root] = outStart[root];
+
+            while (csp > 0) {
+                int v = callStack[csp - 1];
+                if (edge[v] < outStart[v + 1]) {
+                    int w = out[edge[v]++];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        edge[w] = outStart[w];
+                        callStack[csp++] = w;
+                    }
+                    else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                }
+                else {
+                    csp--;
+                    if (csp > 0) {
+                        int parent = callStack[csp - 1];
+                        low[parent] = Math.min(low[parent], low[v]);
+                    }
+                    if (low[v] == index[v]) {
+                        int w;
+                        do {
+                            w = stack[--sp];
+                            onStack[w] = false;
+                            component[w] = components;
+                        } while (w != v);
+                        components++;
+                    }
+                }
+            }
+        }
+        return component;
+    }
+
+    /**
+     * Returns the topological level of every node in the condensation DAG:
+     * nodes without dependencies are on level 0, every other node is one level
+     * above its highest dependency outside of its own component.
+     */
+    public int[] levels() {
+        int[] component = components();
+        int count = 0;
+        for (int c : component) {
+            count = Math.max(count, c + 1);
+        }
+
+        // bucket nodes by component, which is already a topological order
+        int[] start = new int[count + 1];
+        for (int c : component) {
+            start[c + 1]++;
+        }
+        for (int c = 0; c < count; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] members = new int[names.length];
+        int[] fill = Arrays.copyOf(start, count);
+        for (int v = 0; v < names.length; v++) {
+            members[fill[component[v]]++] = v;
+        }
+
+        int[] componentLevel = new int[count];
+        for (int c = 0; c < count; c++) {
+            int level = 0;
+            for (int i = start[c]; i < start[c + 1]; i++) {
+                int v = members[i];
+                for (int e = outStart[v]; e < outStart[v + 1]; e++) {
+                    int d = component[out[e]];
+                    if (d != c) {
+                        level = Math.max(level, componentLevel[d] + 1);
+                    }
+                }
+            }
+            componentLevel[c] = level;
+        }
+
+        int[] level = new int[names.length];
+        for (int v = 0; v < names.length; v++) {
+            level[v] = componentLevel[component[v]];
+        }
+        return level;
+    }
+
+    /**
+     * Finds a cycle with an iterative depth first search and returns it as a
+     * path that starts and ends with the same node, or null if the graph is
+     * acyclic.
+     */
+    public List<String> firstCycle() {
+        int n = names.length;
+        byte[] state = new byte[n];
+        int[] parent = new int[n];
+        int[] cursor = new int[n];
+        int[] stack = new int[n];
+
+        for (int root = 0; root < n; root++) {
+            if (state[root] != 0) {
+                continue;
+            }
+            int sp = 0;
+            stack[sp++] = root;
+            state[root] = 1;
+            cursor[root] = outStart[root];
+
+            while (sp > 0) {
+                int v = stack[sp - 1];
+                if (cursor[v] < outStart[v + 1]) {
+                    int w = out[cursor[v]++];
+                    if (state[w] == 0) {
+                        state[w] = 1;
+                        parent[w] = v;
+                        cursor[w] = outStart[w];
+                        stack[sp++] = w;
+                    }
+                    else if (state[w] == 1) {
+                        List<String> cycle = new ArrayList();
+                        cycle.add(names[w]);
+                        for (int p = v; p != w; p = parent[p]) {
+                            cycle.add(names[p]);
+                        }
+                        cycle.add(names[w]);
+                        Collections.reverse(cycle);
+                        return cycle;
+                    }
+                }
+                else {
+                    state[v] = 2;
+                    sp--;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -5,4 +5,20 @@ import java.util.Set;
 public interface ClassInfo {
     String name();
     Set<String> dependencies();
+
+    /**
+     * How much of the class file the dependencies were taken from.
+     */
+    default Analyzer.Depth depth() {
+        return Analyzer.Depth.FULL;
+    }
+
+    /**
+     * How many references to the dependency the class file holds, or 0 if it
+     * is not a dependency. Classes not parsed from class files, e.g. read from
+     * a jar index, count each dependency once.
+     */
+    default int weight(String dependency) {
+        return dependencies().contains(dependency) ? 1 : 0;
+    }
 }
@@ -1,15 +1,19 @@
 package com.coxautodev.halp;
 
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -24,10 +28,131 @@ public class Core {
     public static List<ClassInfo> analyzeClasspath(Iterable<String> includes) {
         List<ClassInfo> output = new ArrayList();
         Patterns.PatternMatcher matcher = Patterns.pattern(includes);
-        Scanner.scan(matcher::matches, in -> output.add(Analyzer.create(in)));
+        Scanner.analyze(matcher::matches, output::add);
         return output;
     }
 
+    /*
+     * Like analyzeClasspath, but analyzes classes only to the given depth, e.g.
+     * Analyzer.Depth.API for rules that only concern public signatures.
+     */
+    public static List<ClassInfo> analyzeClasspath(Analyzer.Depth depth, Iterable<String> includes) {
+        List<ClassInfo> output = new ArrayList();
+        Patterns.PatternMatcher matcher = Patterns.pattern(includes);
+        Scanner.analyze(matcher::matches, depth, output::add, Scanner.defaultSource);
+        return output;
+    }
+
+    public static List<ClassInfo> analyzeClasspath(Analyzer.Depth depth, String...includes) {
+        return analyzeClasspath(depth, asList(includes));
+    }
+
+    /*
+     * Like analyzeClasspath, but also records member-level dependencies into
+     * members. Class files are always parsed, since jar indexes only hold
+     * class-level dependencies.
+     */
+    public static List<ClassInfo> analyzeClasspath(MemberGraph members, Iterable<String> includes) {
+        List<ClassInfo> output = new ArrayList();
+        Patterns.PatternMatcher matcher = Patterns.pattern(includes);
+        Scanner.scan(matcher::matches, in -> output.add(Analyzer.create(in, members)));
+        return output;
+    }
+
+    /*
+     * Analyzes the classpath without keeping class metadata on the heap, for
+     * scans too large for analyzeClasspath. Edges are buffered up to
+     * heapBudgetBytes and spilled to temporary files beyond that. The returned
+     * graph should be closed to delete its files.
+     */
+    public static DiskGraph analyzeClasspathBounded(long heapBudgetBytes, Iterable<String> includes) {
+        try {
+            return DiskGraph.build(includes, heapBudgetBytes);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public interface Conflict {
+        String className();
+
+        /**
+         * The jars and directories holding differing copies of the class, in
+         * classpath order. The first one is the copy that gets analyzed.
+         */
+        List<String> artifacts();
+    }
+
+    /*
+     * Finds classes matching includes that appear more than once on the
+     * classpath with different bytes, e.g. two versions of a library or a
+     * shaded copy that was modified. Identical copies are not conflicts.
+     */
+    public static List<Conflict> findClasspathConflicts(Iterable<String> includes, Scanner.URLSource source) {
+        Map<String, List<String>> found = new LinkedHashMap();
+        Patterns.PatternMatcher matcher = Patterns.pattern(includes);
+        Scanner.scan(matcher::matches, in -> {}, (className, first, copy, identical) -> {
+            if (!identical) {
+                List<String> artifacts = found.get(className);
+                if (artifacts == null) {
+                    artifacts = new ArrayList();
+                    artifacts.add(Scanner.path(first));
+                    found.put(className, artifacts);
+                }
+                artifacts.add(Scanner.path(copy));
+            }
+        }, source);
+
+        List<Conflict> conflicts = new ArrayList();
+        for (Map.Entry<String, List<String>> e : found.entrySet()) {
+            String className = e.getKey();
+            List<String> artifacts = e.getValue();
+            conflicts.add(new Conflict() {
+                public String className() { return className; }
+                public List<String> artifacts() { return artifacts; }
+
+                @Override
+                public String toString() {
+                    return className + " in " + artifacts;
+                }
+            });
+        }
+        return conflicts;
+    }
+
+    public static List<Conflict> findClasspathConflicts(Iterable<String> includes) {
+        return findClasspathConflicts(includes, Scanner.defaultSource);
+    }
+
+    public static List<Conflict> findClasspathConflicts(String...includes) {
+        return findClasspathConflicts(asList(includes));
+    }
+
+    /*
+     * Summarizes which jars and directories on the classpath use which, based
+     * on the classes matching includes.
+     */
+    public static ArtifactGraph analyzeArtifacts(Iterable<String> includes) {
+        return ArtifactGraph.build(includes);
+    }
+
+    public static ArtifactGraph analyzeArtifacts(String...includes) {
+        return analyzeArtifacts(asList(includes));
+    }
+
+    /*
+     * Analyzes the classpath into a Graph, which keeps its derived views so
+     * several checks can share them.
+     */
+    public static Graph graph(Iterable<String> includes) {
+        return Graph.of(analyzeClasspath(includes));
+    }
+
+    public static Graph graph(String...includes) {
+        return graph(asList(includes));
+    }
+
     public static List<ClassInfo> analyzeClasspath(String...includes) {
         return analyzeClasspath(asList(includes));
     }
@@ -36,20 +161,64 @@ public class Core {
         return analyzeClasspath(Modules.includes(modules));
     }
 
-    public static String printClassInfo(List<ClassInfo> deps) {
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter(sw);
-        for (ClassInfo d : deps) {
+    /*
+     * Starts analyzing the classpath in the background, so it can be kicked off
+     * early (e.g. in a static initializer) and overlap with other test setup.
+     */
+    public static CompletableFuture<List<ClassInfo>> analyzeClasspathAsync(Executor executor, Iterable<String> includes) {
+        return CompletableFuture.supplyAsync(() -> analyzeClasspath(includes), executor);
+    }
 
-            pw.println(d.name() + " [");
-            List<String> sorted = new ArrayList(d.dependencies());
-            Collections.sort(sorted);
-            for (String dep : sorted) {
+    public static CompletableFuture<List<ClassInfo>> analyzeClasspathAsync(Iterable<String> includes) {
+        return CompletableFuture.supplyAsync(() -> analyzeClasspath(includes));
+    }
+
+    public static CompletableFuture<List<ClassInfo>> analyzeClasspathAsync(String...includes) {
+        return analyzeClasspathAsync(asList(includes));
+    }
+
+    public static CompletableFuture<List<ClassInfo>> analyzeClasspathAsync(Collection<Module> modules) {
+        return analyzeClasspathAsync(Modules.includes(modules));
+    }
+
+    /*
+     * Writes each class followed by its dependencies in name order, as it
+     * goes. Only one class's dependencies are sorted at a time, in a buffer
+     * that is reused for the next class.
+     */
+    public static void printClassInfo(List<ClassInfo> deps, Writer out) throws IOException {
+        String[] sorted = new String[16];
+        for (ClassInfo d : deps) {
+            if (sorted.length < d.dependencies().size()) {
+                sorted = new String[Math.max(d.dependencies().size(), sorted.length * 2)];
+            }
+            int count = 0;
+            for (String dep : d.dependencies()) {
                 if (dep != null) {
-                    pw.println("    " + dep);
+                    sorted[count++] = dep;
                 }
             }
-            System.out.println("]");
+            Arrays.sort(sorted, 0, count);
+
+            out.write(d.name());
+            out.write(" [\n");
+            for (int i = 0; i < count; i++) {
+                out.write("    ");
+                out.write(sorted[i]);
+                out.write('\n');
+            }
+            out.write("]\n");
+        }
+        out.flush();
+    }
+
+    public static String printClassInfo(List<ClassInfo> deps) {
+        StringWriter sw = new StringWriter();
+        try {
+            printClassInfo(deps, sw);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
         }
         return sw.getBuffer().toString();
     }
@@ -112,7 +281,7 @@ public class Core {
 
     private static final Pattern topLevelClassPattern = Pattern.compile("([^\\$]+).*$");
 
-    private static String toTopLevelClass(String name) {
+    static String toTopLevelClass(String name) {
         if (!name.contains("$")) {
             return name;
         }
@@ -138,7 +307,7 @@ public class Core {
 
     private static final Pattern packagePattern = Pattern.compile("(.*)\\..*$");
 
-    private static String toPackage(String name) {
+    static String toPackage(String name) {
         if (!name.contains(".")) {
             return "";
         }
@@ -162,13 +331,149 @@ public class Core {
         return findFirstCycle(packageDeps);
     }
 
+    /*
+     * Suggests dependencies between top-level classes whose removal breaks
+     * every class cycle, cheapest first.
+     */
+    public static List<CycleBreaker.Cut> classCycleCuts(List<ClassInfo> deps) {
+        return CycleBreaker.classCycleCuts(deps);
+    }
+
+    /*
+     * Suggests dependencies between packages whose removal breaks every
+     * package cycle, cheapest first.
+     */
+    public static List<CycleBreaker.Cut> packageCycleCuts(List<ClassInfo> deps) {
+        return CycleBreaker.packageCycleCuts(deps);
+    }
+
+    public interface LayerViolation {
+        String from();
+        String to();
+        String fromLayer();
+        String toLayer();
+    }
+
+    public interface Layering {
+        Map<String, Integer> packageLevels();
+        List<LayerViolation> violations();
+    }
+
+    private static LayerViolation layerViolation(String from, String to, String fromLayer, String toLayer) {
+        return new LayerViolation() {
+            public String from() { return from; }
+            public String to() { return to; }
+            public String fromLayer() { return fromLayer; }
+            public String toLayer() { return toLayer; }
+
+            @Override
+            public String toString() {
+                return from + " (" + fromLayer + ") -> " + to + " (" + toLayer + ")";
+            }
+        };
+    }
+
+    /*
+     * Takes class metadata and layer patterns ordered from the lowest layer to
+     * the highest. Classes may only depend on classes in their own or a lower
+     * layer. Each class is matched against the layers once, and each component
+     * of the package condensation DAG gets the range of layers of its classes.
+     * Only the class edges leaving components with an edge that may point
+     * upwards are then checked; packages are also given their topological
+     * level in the condensation. Classes matching no layer are ignored.
+     */
+    public static Layering inspectLayers(List<ClassInfo> deps, List<String> layers) {
+        ClassGraph graph = ClassGraph.of(deps);
+        return inspectLayers(graph, graph.map(Core::toPackage), layers);
+    }
+
+    static Layering inspectLayers(ClassGraph graph, ClassGraph packages, List<String> layers) {
+
+        List<Patterns.PatternMatcher> matchers = layers.stream()
+            .map(Patterns::pattern)
+            .collect(toList());
+
+        int[] layer = new int[graph.size()];
+        for (int v = 0; v < graph.size(); v++) {
+            layer[v] = -1;
+            for (int l = 0; l < matchers.size(); l++) {
+                if (matchers.get(l).matches(graph.names[v])) {
+                    layer[v] = l;
+                    break;
+                }
+            }
+        }
+
+        // the lowest and highest layer of the classes in each component of the
+        // package condensation
+        int[] component = packages.components();
+        int count = 0;
+        for (int c : component) {
+            count = Math.max(count, c + 1);
+        }
+        int[] componentOf = new int[graph.size()];
+        int[] low = new int[count];
+        int[] high = new int[count];
+        Arrays.fill(low, Integer.MAX_VALUE);
+        Arrays.fill(high, -1);
+        for (int v = 0; v < graph.size(); v++) {
+            int c = component[packages.id(toPackage(graph.names[v]))];
+            componentOf[v] = c;
+            if (layer[v] >= 0) {
+                low[c] = Math.min(low[c], layer[v]);
+                high[c] = Math.max(high[c], layer[v]);
+            }
+        }
+
+        // only components with an edge that may point upwards, within them or
+        // to another component, need their class edges checked
+        boolean[] suspect = new boolean[count];
+        for (int c = 0; c < count; c++) {
+            suspect[c] = high[c] > low[c];
+        }
+        for (int p = 0; p < packages.size(); p++) {
+            int c = component[p];
+            for (int e = packages.outStart[p]; e < packages.outStart[p + 1]; e++) {
+                if (high[component[packages.out[e]]] > low[c]) {
+                    suspect[c] = true;
+                }
+            }
+        }
+
+        List<LayerViolation> violations = new ArrayList();
+        for (int v = 0; v < graph.size(); v++) {
+            if (layer[v] < 0 || !suspect[componentOf[v]]) {
+                continue;
+            }
+            for (int e = graph.outStart[v]; e < graph.outStart[v + 1]; e++) {
+                int w = graph.out[e];
+                if (layer[w] > layer[v]) {
+                    violations.add(layerViolation(graph.names[v], graph.names[w], layers.get(layer[v]), layers.get(layer[w])));
+                }
+            }
+        }
+
+        int[] levels = packages.levels();
+        Map<String, Integer> packageLevels = new HashMap();
+        for (int p = 0; p < packages.size(); p++) {
+            if (packages.analyzed[p]) {
+                packageLevels.put(packages.names[p], levels[p]);
+            }
+        }
+
+        return new Layering() {
+            public Map<String, Integer> packageLevels() { return packageLevels; }
+            public List<LayerViolation> violations() { return violations; }
+        };
+    }
+
     public interface ModuleInspection {
         String moduleName();
         Set<String> undeclared();
         Set<String> unused();
     }
 
-    private static boolean isBuiltin(String id) {
+    static boolean isBuiltin(String id) {
         return (id.startsWith("java.") || id.startsWith("javax."));
     }
 
@@ -217,4 +522,60 @@ public class Core {
             .filter(notReferenced)
             .collect(toSet());
     }
+
+    public interface Impact {
+        Set<String> classes();
+        Set<String> modules();
+        Set<String> tests();
+    }
+
+    /*
+     * Takes a graph, a set of changed classes, the module definitions and the
+     * patterns identifying test classes. Returns every class that transitively
+     * depends on a changed class, along with the modules and test classes among
+     * them.
+     */
+    public static Impact impact(ClassGraph graph, Collection<String> changed, Collection<Module> modules, Iterable<String> tests) {
+
+        Set<String> classes = graph.transitiveDependents(changed);
+
+        Set<String> affectedModules = modules.stream()
+            .filter(m -> {
+                Patterns.PatternMatcher include = Patterns.pattern(m.includes());
+                return classes.stream().anyMatch(include::matches);
+            })
+            .map(Module::name)
+            .collect(toSet());
+
+        Patterns.PatternMatcher testMatcher = Patterns.pattern(tests);
+        Set<String> affectedTests = classes.stream()
+            .filter(testMatcher::matches)
+            .collect(toSet());
+
+        return new Impact() {
+            public Set<String> classes() { return classes; }
+            public Set<String> modules() { return affectedModules; }
+            public Set<String> tests() { return affectedTests; }
+        };
+    }
+
+    /*
+     * Async variants of the checks above. Each one runs once the analysis has
+     * completed, so several checks chained on the same analysis run in parallel.
+     */
+    public static CompletableFuture<List<String>> firstClassCycleAsync(CompletableFuture<List<ClassInfo>> deps) {
+        return deps.thenApplyAsync(Core::firstClassCycle);
+    }
+
+    public static CompletableFuture<List<String>> firstPackageCycleAsync(CompletableFuture<List<ClassInfo>> deps) {
+        return deps.thenApplyAsync(Core::firstPackageCycle);
+    }
+
+    public static CompletableFuture<ModuleInspection> inspectModuleAsync(CompletableFuture<? extends Collection<ClassInfo>> deps, Module m) {
+        return deps.thenApplyAsync(d -> inspectModule(d, m));
+    }
+
+    public static CompletableFuture<Set<String>> findUnmodularizedBehaviorAsync(CompletableFuture<? extends Collection<ClassInfo>> classpath, Collection<Module> modules) {
+        return classpath.thenApplyAsync(c -> findUnmodularizedBehavior(c, modules));
+    }
 }
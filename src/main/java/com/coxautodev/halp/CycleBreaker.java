@@ -0,0 +1,279 @@
+package com.coxautodev.halp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+/**
+ * Suggests which dependencies to cut to break the cycles between top-level
+ * classes or packages. Each edge is weighted by the number of references
+ * behind it, and every strongly connected component is ordered with the
+ * Eades-Lin-Smyth heuristic: sinks go last, sources go first, and otherwise
+ * the node with the most outgoing minus incoming weight goes next. The edges
+ * pointing backwards in that order are a feedback arc set, i.e. cutting all
+ * of them leaves no cycle, and they tend to be light.
+ */
+public class CycleBreaker {
+
+    public interface Cut {
+        String from();
+        String to();
+
+        /**
+         * The number of references from classes in from to classes in to.
+         */
+        int weight();
+
+        /**
+         * The classes in from that reference to, most references first.
+         */
+        List<String> responsible();
+    }
+
+    private static Cut cut(String from, String to, int weight, List<String> responsible) {
+        return new Cut() {
+            public String from() { return from; }
+            public String to() { return to; }
+            public int weight() { return weight; }
+            public List<String> responsible() { return responsible; }
+
+            @Override
+            public String toString() {
+                return from + " -> " + to + " (" + weight + " references from " + responsible + ")";
+            }
+        };
+    }
+
+    public static List<Cut> classCycleCuts(Collection<ClassInfo> deps) {
+        return cuts(deps, Core::toTopLevelClass);
+    }
+
+    public static List<Cut> packageCycleCuts(Collection<ClassInfo> deps) {
+        return cuts(deps, Core::toPackage);
+    }
+
+    private static long edge(int u, int v) {
+        return ((long) u << 32) | v;
+    }
+
+    /**
+     * Returns the dependencies to cut between the nodes that level maps
+     * classes to, cheapest first.
+     */
+    public static List<Cut> cuts(Collection<ClassInfo> deps, Function<String, String> level) {
+
+        ClassGraph g = ClassGraph.of(deps).map(level);
+        int[] component = g.components();
+
+        // weights of the edges within a component
+        Map<Long, Integer> weights = new HashMap();
+        for (ClassInfo c : deps) {
+            int u = g.id(level.apply(c.name()));
+            for (String d : c.dependencies()) {
+                if (d != null) {
+                    int v = g.id(level.apply(d));
+                    if (u != v && component[u] == component[v]) {
+                        weights.merge(edge(u, v), c.weight(d), Integer::sum);
+                    }
+                }
+            }
+        }
+        if (weights.isEmpty()) {
+            return new ArrayList();
+        }
+
+        // group the edges by component
+        int components = 0;
+        for (int c : component) {
+            components = Math.max(components, c + 1);
+        }
+        List<List<Long>> edgesOf = new ArrayList(components);
+        for (int c = 0; c < components; c++) {
+            edgesOf.add(null);
+        }
+        for (long e : weights.keySet()) {
+            int c = component[(int) (e >>> 32)];
+            if (edgesOf.get(c) == null) {
+                edgesOf.set(c, new ArrayList());
+            }
+            edgesOf.get(c).add(e);
+        }
+
+        int[] local = new int[g.size()];
+        Arrays.fill(local, -1);
+        Map<Long, Map<String, Integer>> cut = new HashMap();
+        for (List<Long> edges : edgesOf) {
+            if (edges != null) {
+                for (long e : feedbackArcs(edges, weights, local)) {
+                    cut.put(e, new HashMap());
+                }
+            }
+        }
+
+        // find the classes behind the edges to cut
+        for (ClassInfo c : deps) {
+            int u = g.id(level.apply(c.name()));
+            for (String d : c.dependencies()) {
+                if (d != null) {
+                    Map<String, Integer> responsible = cut.get(edge(u, g.id(level.apply(d))));
+                    if (responsible != null) {
+                        responsible.merge(c.name(), c.weight(d), Integer::sum);
+                    }
+                }
+            }
+        }
+
+        List<Cut> result = new ArrayList();
+        for (Map.Entry<Long, Map<String, Integer>> e : cut.entrySet()) {
+            Map<String, Integer> references = e.getValue();
+            List<String> responsible = new ArrayList(references.keySet());
+            responsible.sort(Comparator.comparing((String c) -> -references.get(c)).thenComparing(c -> c));
+            long key = e.getKey();
+            result.add(cut(g.name((int) (key >>> 32)), g.name((int) key), weights.get(key), responsible));
+        }
+        result.sort(Comparator.comparingInt(Cut::weight).thenComparing(Cut::from).thenComparing(Cut::to));
+        return result;
+    }
+
+    /*
+     * Orders the nodes of one component with Eades-Lin-Smyth and returns the
+     * edges pointing backwards. local maps graph ids to ids within the
+     * component and is reset before returning.
+     */
+    private static List<Long> feedbackArcs(List<Long> edges, Map<Long, Integer> weights, int[] local) {
+
+        int m = edges.size();
+        int[] nodes = new int[2 * m];
+        int n = 0;
+        int[] from = new int[m];
+        int[] to = new int[m];
+        int[] weight = new int[m];
+        for (int e = 0; e < m; e++) {
+            long key = edges.get(e);
+            int u = (int) (key >>> 32);
+            int v = (int) key;
+            if (local[u] < 0) {
+                nodes[n] = u;
+                local[u] = n++;
+            }
+            if (local[v] < 0) {
+                nodes[n] = v;
+                local[v] = n++;
+            }
+            from[e] = local[u];
+            to[e] = local[v];
+            weight[e] = weights.get(key);
+        }
+
+        // adjacency as edge indexes, outgoing and incoming
+        int[] outStart = new int[n + 1];
+        int[] inStart = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            outStart[from[e] + 1]++;
+            inStart[to[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            outStart[i + 1] += outStart[i];
+            inStart[i + 1] += inStart[i];
+        }
+        int[] outEdges = new int[m];
+        int[] inEdges = new int[m];
+        int[] outFill = Arrays.copyOf(outStart, n);
+        int[] inFill = Arrays.copyOf(inStart, n);
+        for (int e = 0; e < m; e++) {
+            outEdges[outFill[from[e]]++] = e;
+            inEdges[inFill[to[e]]++] = e;
+        }
+
+        long[] outWeight = new long[n];
+        long[] inWeight = new long[n];
+        int[] outDegree = new int[n];
+        int[] inDegree = new int[n];
+        for (int e = 0; e < m; e++) {
+            outWeight[from[e]] += weight[e];
+            inWeight[to[e]] += weight[e];
+            outDegree[from[e]]++;
+            inDegree[to[e]]++;
+        }
+
+        // candidates by outgoing minus incoming weight; stale entries are skipped
+        PriorityQueue<long[]> byDelta = new PriorityQueue<>(n, (a, b) -> Long.compare(b[0], a[0]));
+        for (int i = 0; i < n; i++) {
+            byDelta.add(new long[] {outWeight[i] - inWeight[i], i});
+        }
+        int[] sinks = new int[n];
+        int[] sources = new int[n];
+        int sinkCount = 0, sourceCount = 0;
+
+        boolean[] removed = new boolean[n];
+        int[] position = new int[n];
+        int head = 0;
+        int tail = n - 1;
+
+        for (int placed = 0; placed < n; placed++) {
+            int u = -1;
+            boolean sink = false;
+            while (u < 0 && sinkCount > 0) {
+                int s = sinks[--sinkCount];
+                if (!removed[s]) {
+                    u = s;
+                    sink = true;
+                }
+            }
+            while (u < 0 && sourceCount > 0) {
+                int s = sources[--sourceCount];
+                if (!removed[s]) {
+                    u = s;
+                }
+            }
+            while (u < 0) {
+                long[] candidate = byDelta.poll();
+                int c = (int) candidate[1];
+                if (!removed[c] && candidate[0] == outWeight[c] - inWeight[c]) {
+                    u = c;
+                }
+            }
+
+            removed[u] = true;
+            position[u] = sink ? tail-- : head++;
+
+            for (int i = outStart[u]; i < outStart[u + 1]; i++) {
+                int v = to[outEdges[i]];
+                if (!removed[v]) {
+                    inWeight[v] -= weight[outEdges[i]];
+                    if (--inDegree[v] == 0) {
+                        sources[sourceCount++] = v;
+                    }
+                    byDelta.add(new long[] {outWeight[v] - inWeight[v], v});
+                }
+            }
+            for (int i = inStart[u]; i < inStart[u + 1]; i++) {
+                int v = from[inEdges[i]];
+                if (!removed[v]) {
+                    outWeight[v] -= weight[inEdges[i]];
+                    if (--outDegree[v] == 0) {
+                        sinks[sinkCount++] = v;
+                    }
+                    byDelta.add(new long[] {outWeight[v] - inWeight[v], v});
+                }
+            }
+        }
+
+        List<Long> backwards = new ArrayList();
+        for (int e = 0; e < m; e++) {
+            if (position[from[e]] > position[to[e]]) {
+                backwards.add(edges.get(e));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            local[nodes[i]] = -1;
+        }
+        return backwards;
+    }
+}
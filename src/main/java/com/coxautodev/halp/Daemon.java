@@ -0,0 +1,600 @@
+package com.coxautodev.halp;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps a warm dependency graph of the included classes in memory and answers
+ * cycle, module-boundary and reachability queries over a loopback socket.
+ *
+ * The protocol is line based: each request is a single line of tab separated
+ * fields, and each request is answered with a single line starting with OK,
+ * REFUSED or ERROR. Within a field, backslashes, commas, tabs and newlines
+ * are escaped with a backslash, and every item of a list is followed by a
+ * comma, so patterns such as com\.foo\.(a|b){1,2} arrive intact.
+ *
+ * <pre>
+ * PING
+ * CLASS_CYCLE    classpath  includes
+ * PACKAGE_CYCLE  classpath  includes
+ * MODULE         classpath  includes  name  moduleIncludes  moduleUses
+ * REACH          classpath  includes  from  to
+ * SHUTDOWN       token
+ * </pre>
+ *
+ * Queries are REFUSED if the client's classpath differs from the daemon's,
+ * or if the includes match classes outside the ones the daemon was started
+ * with. Clients then fall back to analyzing the classpath themselves.
+ *
+ * SHUTDOWN must carry the random token the daemon writes at startup to a
+ * file only its user can read, see tokenFile, so other local users' processes
+ * cannot stop it.
+ */
+public class Daemon implements Closeable {
+
+    public static final String PORT_PROPERTY = "halp.daemon.port";
+
+    public static final String PORT_ENV = "HALP_DAEMON_PORT";
+
+    /*
+     * How long either side waits for the other to send a line, so a client
+     * that dies mid-request cannot stall the daemon and a stalled daemon
+     * cannot hang a test run, which then analyzes locally.
+     */
+    static final int READ_TIMEOUT = Integer.getInteger("halp.daemon.timeout", 60000);
+
+    private final List<String> includePatterns;
+    private final Patterns.PatternMatcher includes;
+    private final Scanner.URLSource source;
+    private final ServerSocket server;
+    private final String token;
+
+    /*
+     * The classes of each jar or directory, kept for as long as the files
+     * they came from look unchanged, so a refresh only has to stat them
+     */
+    private static class Artifact {
+        final long modified;
+        final long size;
+        final List<ClassInfo> classes;
+        Artifact(long modified, long size, List<ClassInfo> classes) {
+            this.modified = modified;
+            this.size = size;
+            this.classes = classes;
+        }
+    }
+
+    private Map<String, Artifact> artifacts = new HashMap();
+    private List<String> classpath = new ArrayList();
+    private List<ClassInfo> snapshot = new ArrayList();
+    private final Map<String, List<ClassInfo>> scoped = new HashMap();
+
+    private volatile boolean running = true;
+
+    public Daemon(int port, Iterable<String> includes, Scanner.URLSource source) throws IOException {
+        this.includePatterns = new ArrayList();
+        includes.forEach(includePatterns::add);
+        this.includes = Patterns.pattern(includePatterns);
+        this.source = source;
+        this.server = new ServerSocket();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        this.token = new BigInteger(1, random).toString(16);
+        try {
+            writeUserOnly(tokenFile(port()), token);
+            refresh();
+        }
+        catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public Daemon(int port, Iterable<String> includes) throws IOException {
+        this(port, includes, Scanner.defaultSource);
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * The file holding the shutdown token of the daemon on the given port, in
+     * the halp.daemon.dir directory or else ~/.halp.
+     */
+    public static File tokenFile(int port) {
+        String dir = System.getProperty("halp.daemon.dir", System.getProperty("user.home") + File.separator + ".halp");
+        return new File(dir, "daemon-" + port + ".token");
+    }
+
+    /* creates the file readable and writable by its owner alone before writing to it */
+    private static void writeUserOnly(File f, String content) throws IOException {
+        f.getAbsoluteFile().getParentFile().mkdirs();
+        Path p = f.toPath();
+        Files.deleteIfExists(p);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(p, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        else {
+            Files.createFile(p);
+            f.setReadable(false, false);
+            f.setReadable(true, true);
+            f.setWritable(false, false);
+            f.setWritable(true, true);
+        }
+        Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * The latest modification time and the total size of the artifact's class
+     * files, which change whenever one of them is added, removed or rewritten.
+     */
+    private static long[] fingerprint(File f) throws IOException {
+        if (!f.isDirectory()) {
+            return new long[] {f.lastModified(), f.length()};
+        }
+        long[] fingerprint = new long[2];
+        try (Stream<Path> files = Files.walk(f.toPath())) {
+            files.filter(p -> p.toString().endsWith(".class")).forEach(p -> {
+                File c = p.toFile();
+                fingerprint[0] = Math.max(fingerprint[0], c.lastModified());
+                fingerprint[1] += c.length() + 1;
+            });
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Rescans the classpath, only reading the jars and directories whose
+     * files changed since the last refresh. Returns true if the graph changed.
+     */
+    public synchronized boolean refresh() {
+        final Map<String, Artifact> previous = artifacts;
+        final Map<String, Artifact> current = new HashMap();
+        final List<URL> urls = source.urls();
+        boolean changed = false;
+
+        List<ClassInfo> classes = new ArrayList();
+        Set<String> names = new HashSet();
+        List<String> paths = new ArrayList();
+        try {
+            for (URL url : urls) {
+                String path = Scanner.path(url);
+                paths.add(path);
+                long[] fingerprint = fingerprint(new File(path));
+
+                Artifact a = previous.get(path);
+                if (a == null || a.modified != fingerprint[0] || a.size != fingerprint[1]) {
+                    List<ClassInfo> found = new ArrayList();
+                    Scanner.analyze(includes::matches, found::add, () -> Collections.singletonList(url));
+                    a = new Artifact(fingerprint[0], fingerprint[1], found);
+                    changed = true;
+                }
+                current.put(path, a);
+
+                // the first copy of a class on the classpath wins
+                for (ClassInfo c : a.classes) {
+                    if (names.add(c.name())) {
+                        classes.add(c);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        changed |= !paths.equals(classpath);
+        artifacts = current;
+        classpath = paths;
+        if (changed) {
+            snapshot = classes;
+            scoped.clear();
+        }
+        return changed;
+    }
+
+    /*
+     * Refuses queries the daemon cannot answer faithfully: classes it does not
+     * hold, or a client running on a different classpath.
+     */
+    private void check(String clientClasspath, String includes) {
+        if (!split(clientClasspath).equals(classpath)) {
+            throw new Refused("the daemon runs on a different classpath");
+        }
+        if (!Patterns.covers(includePatterns, split(includes))) {
+            throw new Refused("the daemon does not hold all classes matching " + split(includes));
+        }
+    }
+
+    /**
+     * Thrown by a client when the daemon refuses to answer, in which case the
+     * classes should be analyzed locally.
+     */
+    public static class Refused extends RuntimeException {
+        public Refused(String message) {
+            super(message);
+        }
+    }
+
+    private List<ClassInfo> scope(String includes) {
+        List<ClassInfo> s = scoped.get(includes);
+        if (s == null) {
+            Patterns.PatternMatcher m = Patterns.pattern(split(includes));
+            s = snapshot.stream()
+                .filter(i -> m.matches(i.name()))
+                .collect(toList());
+            scoped.put(includes, s);
+        }
+        return s;
+    }
+
+    private static void escape(String s, StringBuilder sb) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case ',': sb.append("\\,"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        escape(s, sb);
+        return sb.toString();
+    }
+
+    static String unescape(String field) {
+        List<String> items = split(field + ",");
+        return items.get(0);
+    }
+
+    /* every item followed by a comma, so an empty list and an empty item differ */
+    static String join(Iterable<String> items) {
+        StringBuilder sb = new StringBuilder();
+        if (items != null) {
+            for (String item : items) {
+                escape(item, sb);
+                sb.append(',');
+            }
+        }
+        return sb.toString();
+    }
+
+    static List<String> split(String list) {
+        List<String> items = new ArrayList();
+        StringBuilder item = new StringBuilder();
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (c == '\\' && i + 1 < list.length()) {
+                char e = list.charAt(++i);
+                item.append(e == 't' ? '\t' : e == 'n' ? '\n' : e);
+            }
+            else if (c == ',') {
+                items.add(item.toString());
+                item.setLength(0);
+            }
+            else {
+                item.append(c);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Returns the shortest dependency path from one class to another, or null
+     * if the target cannot be reached from the source.
+     */
+    static List<String> path(Iterable<ClassInfo> classes, String from, String to) {
+
+        Map<String, ClassInfo> byName = new HashMap();
+        for (ClassInfo c : classes) {
+            byName.put(c.name(), c);
+        }
+
+        Map<String, String> parents = new HashMap();
+        Deque<String> queue = new ArrayDeque();
+        parents.put(from, from);
+        queue.add(from);
+
+        while (!queue.isEmpty()) {
+            String n = queue.poll();
+            if (n.equals(to)) {
+                List<String> path = new ArrayList();
+                for (String p = to; !p.equals(from); p = parents.get(p)) {
+                    path.add(p);
+                }
+                path.add(from);
+                Collections.reverse(path);
+                return path;
+            }
+            ClassInfo c = byName.get(n);
+            if (c != null) {
+                for (String d : c.dependencies()) {
+                    if (!parents.containsKey(d)) {
+                        parents.put(d, n);
+                        queue.add(d);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    synchronized String handle(String request) {
+        String[] f = request.split("\t", -1);
+        switch (f[0]) {
+            case "PING":
+                return "OK";
+            case "SHUTDOWN":
+                if (f.length < 2 || !MessageDigest.isEqual(
+                        token.getBytes(StandardCharsets.UTF_8), unescape(f[1]).getBytes(StandardCharsets.UTF_8))) {
+                    return "ERROR\tSHUTDOWN needs the token in " + tokenFile(port());
+                }
+                running = false;
+                return "OK";
+            case "CLASS_CYCLE":
+            case "PACKAGE_CYCLE":
+            case "MODULE":
+            case "REACH":
+                break;
+            default:
+                return "ERROR\tunknown request: " + f[0];
+        }
+
+        refresh();
+        try {
+            check(f[1], f[2]);
+        }
+        catch (Refused e) {
+            return "REFUSED\t" + e.getMessage();
+        }
+        List<ClassInfo> scope = scope(f[2]);
+        switch (f[0]) {
+            case "CLASS_CYCLE":
+                return "OK\t" + join(Core.firstClassCycle(scope));
+            case "PACKAGE_CYCLE":
+                return "OK\t" + join(Core.firstPackageCycle(scope));
+            case "MODULE": {
+                Module m = Modules.module(unescape(f[3]))
+                    .include(split(f[4]).toArray(new String[0]))
+                    .use(split(f[5]))
+                    .build();
+                Core.ModuleInspection r = Core.inspectModule(scope, m);
+                return "OK\t" + join(r.undeclared()) + "\t" + join(r.unused());
+            }
+            default:
+                return "OK\t" + join(path(scope, unescape(f[3]), unescape(f[4])));
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setSoTimeout(READ_TIMEOUT);
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String response;
+                try {
+                    response = handle(line);
+                }
+                catch (RuntimeException e) {
+                    response = "ERROR\t" + e;
+                }
+                out.print(response.replace('\n', ' ') + "\n");
+                out.flush();
+                if (!running) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepts connections until a SHUTDOWN request is received or the daemon
+     * is closed. A connection that fails, e.g. because its client was killed
+     * mid-request, is dropped and the daemon keeps accepting.
+     */
+    public void run() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            }
+            catch (IOException e) {
+                if (running && !server.isClosed()) {
+                    throw new RuntimeException(e);
+                }
+                continue;
+            }
+            try {
+                serve(socket);
+            }
+            catch (IOException e) {
+                System.err.println("halp daemon: dropped connection: " + e);
+            }
+        }
+        try {
+            close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Daemon start() {
+        Thread t = new Thread(this::run, "halp-daemon");
+        t.setDaemon(true);
+        t.start();
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        tokenFile(port()).delete();
+    }
+
+    /**
+     * A thin client for a running daemon.
+     */
+    public static class Client {
+
+        private final int port;
+        private final int timeout;
+        private final String classpath;
+
+        public Client(int port) {
+            this(port, READ_TIMEOUT);
+        }
+
+        Client(int port, int timeout) {
+            this.port = port;
+            this.timeout = timeout;
+            this.classpath = join(Scanner.defaultSource.urls().stream()
+                .map(Scanner::path)
+                .collect(toList()));
+        }
+
+        String request(String... fields) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1000);
+                s.setSoTimeout(timeout);
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+                out.print(String.join("\t", fields) + "\n");
+                out.flush();
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                String response = in.readLine();
+                if (response != null && response.startsWith("REFUSED")) {
+                    throw new Refused(response.substring(8));
+                }
+                if (response == null || !response.startsWith("OK")) {
+                    throw new RuntimeException("daemon request failed: " + response);
+                }
+                return response.length() > 3 ? response.substring(3) : "";
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static List<String> orNull(String list) {
+            return list.isEmpty() ? null : split(list);
+        }
+
+        public boolean ping() {
+            try {
+                request("PING");
+                return true;
+            }
+            catch (RuntimeException e) {
+                return false;
+            }
+        }
+
+        /*
+         * The methods below throw Refused if the daemon does not hold all
+         * classes matching includes or runs on a different classpath.
+         */
+        public List<String> firstClassCycle(Iterable<String> includes) {
+            return orNull(request("CLASS_CYCLE", classpath, join(includes)));
+        }
+
+        public List<String> firstPackageCycle(Iterable<String> includes) {
+            return orNull(request("PACKAGE_CYCLE", classpath, join(includes)));
+        }
+
+        public Core.ModuleInspection inspectModule(Iterable<String> includes, Module m) {
+            String[] r = request("MODULE", classpath, join(includes), escape(m.name()), join(m.includes()), join(m.uses())).split("\t", -1);
+            final String name = m.name();
+            final Set<String> undeclared = new HashSet(split(r[0]));
+            final Set<String> unused = new HashSet(split(r[1]));
+            return new Core.ModuleInspection() {
+                public String moduleName() { return name; }
+                public Set<String> undeclared() { return undeclared; }
+                public Set<String> unused() { return unused; }
+            };
+        }
+
+        public List<String> path(Iterable<String> includes, String from, String to) {
+            return orNull(request("REACH", classpath, join(includes), escape(from), escape(to)));
+        }
+
+        /**
+         * Stops the daemon, reading its token from tokenFile, which fails for
+         * users other than the one that started it.
+         */
+        public void shutdown() {
+            try {
+                String token = new String(Files.readAllBytes(tokenFile(port).toPath()), StandardCharsets.UTF_8);
+                request("SHUTDOWN", escape(token));
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns a client for the daemon configured via the halp.daemon.port
+     * system property or the HALP_DAEMON_PORT environment variable, or null if
+     * none is configured or it is not answering.
+     */
+    public static Client client() {
+        String port = System.getProperty(PORT_PROPERTY, System.getenv(PORT_ENV));
+        if (port == null || port.isEmpty()) {
+            return null;
+        }
+        Client c = new Client(Integer.parseInt(port.trim()));
+        return c.ping() ? c : null;
+    }
+
+    /**
+     * Usage: Daemon port include...
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        Daemon d = new Daemon(port, asList(args).subList(1, args.length));
+        System.out.println("halp daemon listening on " + d.port());
+        d.run();
+    }
+}
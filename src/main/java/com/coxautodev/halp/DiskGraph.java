@@ -0,0 +1,450 @@
+package com.coxautodev.halp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * A dependency graph for scans too large to keep on the heap.
+ *
+ * Class names are interned to int ids once, and edges are never held as
+ * ClassInfo sets: they are buffered as packed longs up to a fixed budget,
+ * spilled to disk as sorted runs whenever the buffer fills, and finally merged
+ * into one sorted edge file per view (class, top-level class and package).
+ * The merged files are memory mapped, so traversals read adjacency from the
+ * page cache rather than the heap. Heap usage is the edge budget plus the name
+ * table and a few ints per node; the scan's check for classes found twice on
+ * the classpath is a bit per node of the same table.
+ */
+public class DiskGraph implements Closeable {
+
+    private static final int SEGMENT_EDGES = 1 << 27;
+
+    private final List<String> names = new ArrayList();
+    private final Map<String, Integer> ids = new HashMap();
+    private final BitSet analyzed = new BitSet();
+
+    private final Adjacency classes;
+    private final Adjacency topLevel;
+    private final Adjacency packages;
+
+    /**
+     * Edges of one view, sorted by source and then target.
+     */
+    private static class Adjacency implements Closeable {
+        final File file;
+        final long[] offsets;
+        final MappedByteBuffer[] segments;
+
+        Adjacency(File file, long[] offsets) throws IOException {
+            this.file = file;
+            this.offsets = offsets;
+            long edges = offsets[offsets.length - 1];
+            int count = (int) ((edges + SEGMENT_EDGES - 1) / SEGMENT_EDGES);
+            this.segments = new MappedByteBuffer[count];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                 FileChannel channel = raf.getChannel()) {
+                for (int s = 0; s < count; s++) {
+                    long start = (long) s * SEGMENT_EDGES;
+                    long size = Math.min(SEGMENT_EDGES, edges - start);
+                    segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start * 8, size * 8);
+                }
+            }
+        }
+
+        int target(long edge) {
+            MappedByteBuffer segment = segments[(int) (edge / SEGMENT_EDGES)];
+            return (int) segment.getLong((int) (edge % SEGMENT_EDGES) * 8);
+        }
+
+        @Override
+        public void close() {
+            file.delete();
+        }
+    }
+
+    /**
+     * Buffers edges up to a budget and spills them to disk as sorted runs.
+     * The buffer starts small and only grows to the budget as edges arrive.
+     */
+    private static class Spiller {
+
+        /* the most runs merged at once, bounding open files and read buffers */
+        static final int FAN_IN = 64;
+
+        final File dir;
+        final int limit;
+        long[] buffer;
+        int size;
+        final List<File> runs = new ArrayList();
+
+        Spiller(File dir, long budgetBytes) {
+            this.dir = dir;
+            this.limit = (int) Math.max(4, Math.min(Integer.MAX_VALUE - 8, budgetBytes / 8));
+            this.buffer = new long[Math.min(limit, 1024)];
+        }
+
+        void add(int from, int to) throws IOException {
+            if (from == to) {
+                return;
+            }
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(limit, buffer.length * 2L));
+            }
+            buffer[size++] = ((long) from << 32) | to;
+            if (size == limit) {
+                spill();
+            }
+        }
+
+        void spill() throws IOException {
+            Arrays.sort(buffer, 0, size);
+            File run = File.createTempFile("halp-run", ".edges", dir);
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+                long last = -1;
+                for (int i = 0; i < size; i++) {
+                    if (buffer[i] != last) {
+                        out.writeLong(buffer[i]);
+                        last = buffer[i];
+                    }
+                }
+            }
+            size = 0;
+        }
+
+        private static class Run implements Comparable<Run> {
+            final DataInputStream in;
+            long head;
+            Run(File f) throws IOException {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+            }
+            boolean advance() throws IOException {
+                try {
+                    head = in.readLong();
+                    return true;
+                }
+                catch (EOFException e) {
+                    in.close();
+                    return false;
+                }
+            }
+            public int compareTo(Run o) {
+                return Long.compare(head, o.head);
+            }
+        }
+
+        /*
+         * Merges the inputs into output without duplicates, counting the
+         * edges of each source node into offsets unless it is null.
+         */
+        private static void merge(List<File> inputs, File output, long[] offsets) throws IOException {
+            PriorityQueue<Run> queue = new PriorityQueue();
+            List<Run> open = new ArrayList();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16))) {
+                for (File input : inputs) {
+                    Run r = new Run(input);
+                    open.add(r);
+                    if (r.advance()) {
+                        queue.add(r);
+                    }
+                }
+                long last = -1;
+                while (!queue.isEmpty()) {
+                    Run r = queue.poll();
+                    if (r.head != last) {
+                        out.writeLong(r.head);
+                        if (offsets != null) {
+                            offsets[(int) (r.head >>> 32) + 1]++;
+                        }
+                        last = r.head;
+                    }
+                    if (r.advance()) {
+                        queue.add(r);
+                    }
+                }
+            }
+            finally {
+                for (Run r : open) {
+                    r.in.close();
+                }
+            }
+        }
+
+        /**
+         * Merges the runs into a single deduplicated edge file, in passes of
+         * at most FAN_IN runs each.
+         */
+        Adjacency finish(int nodeCount) throws IOException {
+            try {
+                spill();
+                buffer = null;
+
+                while (runs.size() > FAN_IN) {
+                    List<File> pass = new ArrayList(runs.subList(0, FAN_IN));
+                    File merged = File.createTempFile("halp-run", ".edges", dir);
+                    runs.add(merged);
+                    merge(pass, merged, null);
+                    for (File run : pass) {
+                        run.delete();
+                    }
+                    runs.removeAll(pass);
+                }
+
+                File merged = File.createTempFile("halp-graph", ".edges", dir);
+                long[] offsets = new long[nodeCount + 1];
+                try {
+                    merge(runs, merged, offsets);
+                    for (int i = 0; i < nodeCount; i++) {
+                        offsets[i + 1] += offsets[i];
+                    }
+                    return new Adjacency(merged, offsets);
+                }
+                catch (IOException | RuntimeException e) {
+                    merged.delete();
+                    throw e;
+                }
+            }
+            finally {
+                discard();
+            }
+        }
+
+        /**
+         * Deletes the runs written so far.
+         */
+        void discard() {
+            for (File run : runs) {
+                run.delete();
+            }
+            runs.clear();
+        }
+    }
+
+    private int id(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    private DiskGraph(Iterable<String> includes, Scanner.URLSource source, long budgetBytes, File dir) throws IOException {
+
+        Spiller classEdges = new Spiller(dir, budgetBytes / 3);
+        Spiller topLevelEdges = new Spiller(dir, budgetBytes / 3);
+        Spiller packageEdges = new Spiller(dir, budgetBytes / 3);
+
+        Patterns.PatternMatcher matcher = Patterns.pattern(includes);
+        BitSet scanned = new BitSet();
+        Scanner.FirstCopies firstCopies = name -> {
+            int id = id(name);
+            if (scanned.get(id)) {
+                return false;
+            }
+            scanned.set(id);
+            return true;
+        };
+        Adjacency classes = null, topLevel = null;
+        try {
+            Scanner.analyze(matcher::matches, info -> {
+                try {
+                    int from = id(info.name());
+                    int fromTop = id(Core.toTopLevelClass(info.name()));
+                    int fromPackage = id(Core.toPackage(info.name()));
+                    analyzed.set(from);
+                    analyzed.set(fromTop);
+                    analyzed.set(fromPackage);
+                    for (String d : info.dependencies()) {
+                        if (d != null) {
+                            classEdges.add(from, id(d));
+                            topLevelEdges.add(fromTop, id(Core.toTopLevelClass(d)));
+                            packageEdges.add(fromPackage, id(Core.toPackage(d)));
+                        }
+                    }
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, firstCopies, source);
+
+            int n = names.size();
+            classes = classEdges.finish(n);
+            topLevel = topLevelEdges.finish(n);
+            this.packages = packageEdges.finish(n);
+            this.classes = classes;
+            this.topLevel = topLevel;
+        }
+        catch (IOException | RuntimeException e) {
+            // nothing is deleted on exit, so clean up what was written
+            classEdges.discard();
+            topLevelEdges.discard();
+            packageEdges.discard();
+            if (classes != null) {
+                classes.close();
+            }
+            if (topLevel != null) {
+                topLevel.close();
+            }
+            if (e instanceof RuntimeException && e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Scans the classes matching includes while keeping buffered edges within
+     * budgetBytes, spilling to temporary files in dir.
+     */
+    public static DiskGraph build(Iterable<String> includes, Scanner.URLSource source, long budgetBytes, File dir) throws IOException {
+        return new DiskGraph(includes, source, budgetBytes, dir);
+    }
+
+    public static DiskGraph build(Iterable<String> includes, long budgetBytes) throws IOException {
+        return build(includes, Scanner.defaultSource, budgetBytes, null);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public long edgeCount() {
+        return classes.offsets[classes.offsets.length - 1];
+    }
+
+    /*
+     * Finds a cycle with an iterative depth first search over the mapped edges
+     * and returns it as a path that starts and ends with the same node.
+     */
+    private List<String> firstCycle(Adjacency a) {
+        int n = names.size();
+        byte[] state = new byte[n];
+        int[] parent = new int[n];
+        long[] cursor = new long[n];
+        int[] stack = new int[n];
+
+        for (int root = 0; root < n; root++) {
+            if (state[root] != 0 || !analyzed.get(root)) {
+                continue;
+            }
+            int sp = 0;
+            stack[sp++] = root;
+            state[root] = 1;
+            cursor[root] = a.offsets[root];
+            parent[root] = -1;
+
+            while (sp > 0) {
+                int v = stack[sp - 1];
+                if (cursor[v] < a.offsets[v + 1]) {
+                    int w = a.target(cursor[v]++);
+                    if (state[w] == 0) {
+                        state[w] = 1;
+                        parent[w] = v;
+                        cursor[w] = a.offsets[w];
+                        stack[sp++] = w;
+                    }
+                    else if (state[w] == 1) {
+                        List<String> cycle = new ArrayList();
+                        cycle.add(names.get(w));
+                        for (int p = v; p != w; p = parent[p]) {
+                            cycle.add(names.get(p));
+                        }
+                        cycle.add(names.get(w));
+                        Collections.reverse(cycle);
+                        return cycle;
+                    }
+                }
+                else {
+                    state[v] = 2;
+                    sp--;
+                }
+            }
+        }
+        return null;
+    }
+
+    public List<String> firstClassCycle() {
+        return firstCycle(topLevel);
+    }
+
+    public List<String> firstPackageCycle() {
+        return firstCycle(packages);
+    }
+
+    public Core.ModuleInspection inspectModule(Module m) {
+
+        Patterns.PatternMatcher include = Patterns.pattern(m.includes());
+        Patterns.PatternMatcher uses = Patterns.pattern(m.uses());
+
+        int n = names.size();
+        BitSet included = new BitSet(n);
+        for (int v = 0; v < n; v++) {
+            if (include.matches(names.get(v))) {
+                included.set(v);
+            }
+        }
+
+        Set<String> undeclared = new HashSet();
+        BitSet checked = new BitSet(n);
+        for (int v = included.nextSetBit(0); v >= 0; v = included.nextSetBit(v + 1)) {
+            if (!analyzed.get(v)) {
+                continue;
+            }
+            for (long e = classes.offsets[v]; e < classes.offsets[v + 1]; e++) {
+                int w = classes.target(e);
+                if (checked.get(w) || included.get(w)) {
+                    continue;
+                }
+                checked.set(w);
+                String id = names.get(w);
+                if (!Core.isBuiltin(id) && !uses.matches(id)) {
+                    undeclared.add(id);
+                }
+            }
+        }
+
+        Set<String> unused = new HashSet();
+        for (Map.Entry<String, Integer> e : uses.usage().entrySet()) {
+            if (e.getValue() == 0) {
+                unused.add(e.getKey());
+            }
+        }
+
+        String name = m.name();
+        return new Core.ModuleInspection() {
+            public String moduleName() { return name; }
+            public Set<String> undeclared() { return undeclared; }
+            public Set<String> unused() { return unused; }
+        };
+    }
+
+    @Override
+    public void close() {
+        classes.close();
+        topLevel.close();
+        packages.close();
+    }
+}
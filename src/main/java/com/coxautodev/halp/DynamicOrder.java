@@ -0,0 +1,281 @@
+package com.coxautodev.halp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A topological order of a directed graph that changes edge by edge,
+ * maintained with the Pearce-Kelly algorithm. Adding an edge that agrees with
+ * the current order costs nothing more than recording it; otherwise only the
+ * nodes between its endpoints in the order are searched and reordered.
+ *
+ * An edge that would close a cycle is reported together with the cycle and
+ * kept aside, outside the order, until removing other edges lets it in.
+ * Edges are counted, so an edge added n times is gone after n removals.
+ */
+public class DynamicOrder {
+
+    private final Map<String, Integer> ids = new HashMap();
+    private final List<String> names = new ArrayList();
+
+    /* targets of each node's edges with their counts, and the reverse edges */
+    private final List<Map<Integer, Integer>> out = new ArrayList();
+    private final List<Set<Integer>> in = new ArrayList();
+
+    /* position of each node; an edge u -> v requires ord[u] < ord[v] */
+    private int[] ord = new int[16];
+    private int[] mark = new int[16];
+    private int epoch;
+
+    /* edges that would close a cycle, with their counts */
+    private final Map<Long, Integer> deferred = new LinkedHashMap();
+
+    private static long edge(int u, int v) {
+        return ((long) u << 32) | v;
+    }
+
+    private int id(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+            out.add(new HashMap());
+            in.add(new HashSet());
+            if (id >= ord.length) {
+                ord = Arrays.copyOf(ord, ord.length * 2);
+                mark = Arrays.copyOf(mark, mark.length * 2);
+            }
+            ord[id] = id;
+        }
+        return id;
+    }
+
+    /*
+     * Searches from start along edges in the given direction, staying within
+     * the part of the order between lb and ub. Returns each reached node's
+     * predecessor on the search if target is reached, and null otherwise;
+     * visited receives every node reached.
+     */
+    private Map<Integer, Integer> search(int start, int target, int lb, int ub, boolean forward, List<Integer> visited) {
+        epoch++;
+        Map<Integer, Integer> parent = new HashMap();
+        Deque<Integer> stack = new ArrayDeque();
+        stack.push(start);
+        mark[start] = epoch;
+        parent.put(start, -1);
+        while (!stack.isEmpty()) {
+            int w = stack.pop();
+            visited.add(w);
+            for (int x : forward ? out.get(w).keySet() : in.get(w)) {
+                if (x == target) {
+                    parent.put(x, w);
+                    return parent;
+                }
+                if (mark[x] != epoch && ord[x] >= lb && ord[x] <= ub) {
+                    mark[x] = epoch;
+                    parent.put(x, w);
+                    stack.push(x);
+                }
+            }
+        }
+        return null;
+    }
+
+    /* the cycle u -> v -> ... -> u, given a search from v that reached u */
+    private List<String> cycle(int u, Map<Integer, Integer> parent) {
+        List<String> path = new ArrayList();
+        for (int w = u; w != -1; w = parent.get(w)) {
+            path.add(names.get(w));
+        }
+        path.add(names.get(u));
+        Collections.reverse(path);
+        return path;
+    }
+
+    /*
+     * Makes room in the order for u -> v, returning the cycle it would close
+     * instead if there is one. The edge itself is not recorded.
+     */
+    private List<String> reorder(int u, int v) {
+        if (ord[u] < ord[v]) {
+            return null;
+        }
+        int lb = ord[v];
+        int ub = ord[u];
+
+        List<Integer> forward = new ArrayList();
+        Map<Integer, Integer> parent = search(v, u, lb, ub, true, forward);
+        if (parent != null) {
+            return cycle(u, parent);
+        }
+        List<Integer> backward = new ArrayList();
+        search(u, -1, lb, ub, false, backward);
+
+        // everything reaching u moves before everything reachable from v,
+        // reusing the positions they held
+        Comparator<Integer> byOrd = Comparator.comparingInt(w -> ord[w]);
+        backward.sort(byOrd);
+        forward.sort(byOrd);
+        int[] pool = new int[backward.size() + forward.size()];
+        int i = 0;
+        for (int w : backward) {
+            pool[i++] = ord[w];
+        }
+        for (int w : forward) {
+            pool[i++] = ord[w];
+        }
+        Arrays.sort(pool);
+        i = 0;
+        for (int w : backward) {
+            ord[w] = pool[i++];
+        }
+        for (int w : forward) {
+            ord[w] = pool[i++];
+        }
+        return null;
+    }
+
+    private void link(int u, int v, int count) {
+        out.get(u).put(v, count);
+        in.get(v).add(u);
+    }
+
+    /**
+     * Adds an edge, returning the cycle it closes (starting and ending with
+     * from) or null if the graph stays acyclic. Edges from a node to itself
+     * are ignored.
+     */
+    public List<String> add(String from, String to) {
+        if (from.equals(to)) {
+            return null;
+        }
+        int u = id(from);
+        int v = id(to);
+
+        Integer count = out.get(u).get(v);
+        if (count != null) {
+            out.get(u).put(v, count + 1);
+            return null;
+        }
+        long e = edge(u, v);
+        count = deferred.get(e);
+        if (count != null) {
+            deferred.put(e, count + 1);
+            return reorder(u, v);
+        }
+
+        List<String> cycle = reorder(u, v);
+        if (cycle != null) {
+            deferred.put(e, 1);
+        }
+        else {
+            link(u, v, 1);
+        }
+        return cycle;
+    }
+
+    /**
+     * Removes one occurrence of an edge, returning false if there was none.
+     */
+    public boolean remove(String from, String to) {
+        Integer u = ids.get(from);
+        Integer v = ids.get(to);
+        if (u == null || v == null || u.equals(v)) {
+            return false;
+        }
+
+        long e = edge(u, v);
+        Integer count = deferred.get(e);
+        if (count != null) {
+            if (count > 1) {
+                deferred.put(e, count - 1);
+            }
+            else {
+                deferred.remove(e);
+            }
+            return true;
+        }
+
+        count = out.get(u).get(v);
+        if (count == null) {
+            return false;
+        }
+        if (count > 1) {
+            out.get(u).put(v, count - 1);
+        }
+        else {
+            out.get(u).remove(v);
+            in.get(v).remove(u);
+            readmit(u, v);
+        }
+        return true;
+    }
+
+    /*
+     * Moves the edges kept aside into the order where removing u -> v lets
+     * them in. An edge a -> b was kept aside for a path from b to a; if that
+     * path ran through u -> v, then ord[b] <= ord[u] and ord[v] <= ord[a], so
+     * edges outside that part of the order need not be searched again.
+     */
+    private void readmit(int u, int v) {
+        int ub = ord[u];
+        int lb = ord[v];
+        List<Map.Entry<Long, Integer>> candidates = new ArrayList();
+        for (Map.Entry<Long, Integer> e : deferred.entrySet()) {
+            int a = (int) (e.getKey() >>> 32);
+            int b = (int) (long) e.getKey();
+            if (ord[b] <= ub && ord[a] >= lb) {
+                candidates.add(e);
+            }
+        }
+        for (Map.Entry<Long, Integer> e : candidates) {
+            int a = (int) (e.getKey() >>> 32);
+            int b = (int) (long) e.getKey();
+            if (reorder(a, b) == null) {
+                link(a, b, e.getValue());
+                deferred.remove(e.getKey());
+            }
+        }
+    }
+
+    public boolean hasCycle() {
+        return !deferred.isEmpty();
+    }
+
+    /**
+     * Returns a cycle in the graph, starting and ending with the same node, or
+     * null if there is none.
+     */
+    public List<String> firstCycle() {
+        if (deferred.isEmpty()) {
+            return null;
+        }
+        long e = deferred.keySet().iterator().next();
+        return reorder((int) (e >>> 32), (int) e);
+    }
+
+    /**
+     * Returns the nodes in dependency order, i.e. every node after the nodes
+     * it has an edge to. Edges kept aside for closing a cycle are ignored.
+     */
+    public List<String> order() {
+        String[] byOrd = new String[names.size()];
+        for (int w = 0; w < byOrd.length; w++) {
+            byOrd[ord[w]] = names.get(w);
+        }
+        List<String> order = Arrays.asList(byOrd);
+        Collections.reverse(order);
+        return order;
+    }
+}
@@ -0,0 +1,196 @@
+package com.coxautodev.halp;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes dependency graphs in common graph formats straight to a Writer or
+ * OutputStream. Exporters read the adjacency arrays of a ClassGraph as they
+ * write, and nodes and edges come out in the name order the ClassGraph already
+ * maintains, so output is deterministic without copying or sorting anything.
+ * Exporting a Graph uses its cached views, so exporting after verifying, or in
+ * several formats, builds no graph of its own.
+ */
+public class Exporters {
+
+    public enum Granularity { CLASS, TOP_LEVEL, PACKAGE }
+
+    @FunctionalInterface
+    public interface Exporter {
+        void export(ClassGraph graph, Writer out) throws IOException;
+    }
+
+    public static ClassGraph view(Graph graph, Granularity granularity) {
+        switch (granularity) {
+            case TOP_LEVEL: return graph.topLevelView();
+            case PACKAGE: return graph.packageView();
+            default: return graph.classView();
+        }
+    }
+
+    public static void export(Exporter exporter, Graph graph, Granularity granularity, OutputStream out) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        exporter.export(view(graph, granularity), w);
+        w.flush();
+    }
+
+    public static void export(Exporter exporter, Graph graph, Granularity granularity, Writer out) throws IOException {
+        exporter.export(view(graph, granularity), out);
+        out.flush();
+    }
+
+    /* writes s as a quoted DOT string, without building a new string */
+    private static void quoted(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    /* like quoted, but JSON strings may not contain control characters */
+    private static void string(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            }
+            else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            }
+            else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    /* control characters other than whitespace are not allowed in XML 1.0 at all */
+    private static void xml(Writer out, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<': out.write("&lt;"); break;
+                case '>': out.write("&gt;"); break;
+                case '&': out.write("&amp;"); break;
+                case '"': out.write("&quot;"); break;
+                case '\t': out.write("&#9;"); break;
+                case '\n': out.write("&#10;"); break;
+                case '\r': out.write("&#13;"); break;
+                default: out.write(c < 0x20 ? '\ufffd' : c);
+            }
+        }
+    }
+
+    public static final Exporter dot = (g, out) -> {
+        out.write("digraph dependencies {\n");
+        for (int n = 0; n < g.size(); n++) {
+            out.write("  ");
+            quoted(out, g.names[n]);
+            out.write(";\n");
+        }
+        for (int n = 0; n < g.size(); n++) {
+            for (int e = g.outStart[n]; e < g.outStart[n + 1]; e++) {
+                out.write("  ");
+                quoted(out, g.names[n]);
+                out.write(" -> ");
+                quoted(out, g.names[g.out[e]]);
+                out.write(";\n");
+            }
+        }
+        out.write("}\n");
+    };
+
+    public static final Exporter json = (g, out) -> {
+        out.write("{\"nodes\":[");
+        for (int n = 0; n < g.size(); n++) {
+            if (n > 0) {
+                out.write(',');
+            }
+            out.write("\n{\"id\":");
+            string(out, g.names[n]);
+            out.write(",\"analyzed\":");
+            out.write(g.analyzed[n] ? "true" : "false");
+            out.write('}');
+        }
+        out.write("\n],\"edges\":[");
+        boolean first = true;
+        for (int n = 0; n < g.size(); n++) {
+            for (int e = g.outStart[n]; e < g.outStart[n + 1]; e++) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write("\n{\"from\":");
+                string(out, g.names[n]);
+                out.write(",\"to\":");
+                string(out, g.names[g.out[e]]);
+                out.write('}');
+            }
+        }
+        out.write("\n]}\n");
+    };
+
+    public static final Exporter graphml = (g, out) -> {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+        out.write("  <key id=\"analyzed\" for=\"node\" attr.name=\"analyzed\" attr.type=\"boolean\"/>\n");
+        out.write("  <graph id=\"dependencies\" edgedefault=\"directed\">\n");
+        for (int n = 0; n < g.size(); n++) {
+            out.write("    <node id=\"n");
+            out.write(Integer.toString(n));
+            out.write("\"><data key=\"analyzed\">");
+            out.write(g.analyzed[n] ? "true" : "false");
+            out.write("</data><desc>");
+            xml(out, g.names[n]);
+            out.write("</desc></node>\n");
+        }
+        for (int n = 0; n < g.size(); n++) {
+            for (int e = g.outStart[n]; e < g.outStart[n + 1]; e++) {
+                out.write("    <edge source=\"n");
+                out.write(Integer.toString(n));
+                out.write("\" target=\"n");
+                out.write(Integer.toString(g.out[e]));
+                out.write("\"/>\n");
+            }
+        }
+        out.write("  </graph>\n");
+        out.write("</graphml>\n");
+    };
+
+    /**
+     * Writes coupling metrics as a JSON array, e.g. next to a json export of
+     * the package view.
+     */
+    public static void metrics(List<Metrics.Coupling> metrics, Writer out) throws IOException {
+        out.write('[');
+        for (int i = 0; i < metrics.size(); i++) {
+            Metrics.Coupling c = metrics.get(i);
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write("\n{\"id\":");
+            string(out, c.name());
+            out.write(",\"afferent\":");
+            out.write(Integer.toString(c.afferent()));
+            out.write(",\"efferent\":");
+            out.write(Integer.toString(c.efferent()));
+            out.write(",\"instability\":");
+            out.write(Double.toString(c.instability()));
+            out.write('}');
+        }
+        out.write("\n]\n");
+        out.flush();
+    }
+}
@@ -0,0 +1,320 @@
+package com.coxautodev.halp;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Analyzed class metadata together with the views derived from it. The class,
+ * top-level class and package graphs and each module's compiled patterns are
+ * built on first use and then kept, so running several checks against the
+ * same Graph only pays for them once.
+ */
+public class Graph {
+
+    private final List<ClassInfo> classes;
+
+    private ClassGraph classView;
+    private ClassGraph topLevelView;
+    private ClassGraph packageView;
+
+    private final Map<Module, ModuleView> moduleViews = new IdentityHashMap();
+
+    private Graph(List<ClassInfo> classes) {
+        this.classes = classes;
+    }
+
+    public static Graph of(List<ClassInfo> classes) {
+        return new Graph(classes);
+    }
+
+    public List<ClassInfo> classes() {
+        return classes;
+    }
+
+    public synchronized ClassGraph classView() {
+        if (classView == null) {
+            classView = ClassGraph.of(classes);
+        }
+        return classView;
+    }
+
+    public synchronized ClassGraph topLevelView() {
+        if (topLevelView == null) {
+            topLevelView = classView().map(Core::toTopLevelClass);
+        }
+        return topLevelView;
+    }
+
+    public synchronized ClassGraph packageView() {
+        if (packageView == null) {
+            packageView = classView().map(Core::toPackage);
+        }
+        return packageView;
+    }
+
+    /*
+     * A module's compiled patterns and the nodes of the class view it includes.
+     */
+    private static class ModuleView {
+        final Module module;
+        final Patterns.PatternMatcher uses;
+        final BitSet members;
+        ModuleView(Module module, ClassGraph g) {
+            this.module = module;
+            this.uses = Patterns.pattern(module.uses());
+            this.members = new BitSet(g.size());
+            Patterns.PatternMatcher include = Patterns.pattern(module.includes());
+            for (int v = 0; v < g.size(); v++) {
+                if (include.matches(g.names[v])) {
+                    members.set(v);
+                }
+            }
+        }
+    }
+
+    private synchronized ModuleView moduleView(Module m) {
+        ModuleView view = moduleViews.get(m);
+        if (view == null) {
+            view = new ModuleView(m, classView());
+            moduleViews.put(m, view);
+        }
+        return view;
+    }
+
+    public List<String> firstClassCycle() {
+        return topLevelView().firstCycle();
+    }
+
+    public List<String> firstPackageCycle() {
+        return packageView().firstCycle();
+    }
+
+    public Core.Layering inspectLayers(List<String> layers) {
+        return Core.inspectLayers(classView(), packageView(), layers);
+    }
+
+    public List<Metrics.Coupling> packageMetrics() {
+        return Metrics.packages(classView());
+    }
+
+    public List<Metrics.Coupling> moduleMetrics(Collection<Module> modules) {
+        return Metrics.modules(classView(), modules);
+    }
+
+    private static class Inspection {
+        final List<Core.ModuleInspection> modules = new ArrayList();
+        final Set<String> unmodularized = new HashSet();
+    }
+
+    /*
+     * Inspects every module and collects unmodularized classes in a single pass
+     * over the class view.
+     */
+    private Inspection inspect(Collection<Module> modules) {
+
+        ClassGraph g = classView();
+        List<ModuleView> views = new ArrayList();
+        for (Module m : modules) {
+            views.add(moduleView(m));
+        }
+
+        int count = views.size();
+        List<Set<String>> undeclared = new ArrayList();
+        BitSet[] checked = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            undeclared.add(new HashSet());
+            checked[i] = new BitSet(g.size());
+        }
+
+        Inspection result = new Inspection();
+
+        for (int v = 0; v < g.size(); v++) {
+            if (!g.analyzed[v]) {
+                continue;
+            }
+            boolean covered = false;
+            for (int i = 0; i < count; i++) {
+                ModuleView view = views.get(i);
+                if (!view.members.get(v)) {
+                    continue;
+                }
+                covered = true;
+                for (int e = g.outStart[v]; e < g.outStart[v + 1]; e++) {
+                    int w = g.out[e];
+                    if (checked[i].get(w)) {
+                        continue;
+                    }
+                    checked[i].set(w);
+                    String id = g.names[w];
+                    if (!Core.isBuiltin(id) && !view.members.get(w) && !view.uses.matches(id)) {
+                        undeclared.get(i).add(id);
+                    }
+                }
+            }
+            if (!covered) {
+                result.unmodularized.add(g.names[v]);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            ModuleView view = views.get(i);
+            Set<String> unused = new HashSet();
+            for (Map.Entry<String, Integer> e : view.uses.usage().entrySet()) {
+                if (e.getValue() == 0) {
+                    unused.add(e.getKey());
+                }
+            }
+            String name = view.module.name();
+            Set<String> u = undeclared.get(i);
+            result.modules.add(new Core.ModuleInspection() {
+                public String moduleName() { return name; }
+                public Set<String> undeclared() { return u; }
+                public Set<String> unused() { return unused; }
+            });
+        }
+        return result;
+    }
+
+    public Core.ModuleInspection inspectModule(Module m) {
+        return inspect(Collections.singletonList(m)).modules.get(0);
+    }
+
+    public List<Core.ModuleInspection> inspectModules(Collection<Module> modules) {
+        return inspect(modules).modules;
+    }
+
+    public Set<String> findUnmodularizedBehavior(Collection<Module> modules) {
+        return inspect(modules).unmodularized;
+    }
+
+    /**
+     * Describes which checks verify should run.
+     */
+    public static class Spec {
+        boolean classCycles;
+        boolean packageCycles;
+        boolean unmodularized;
+        final List<Module> modules = new ArrayList();
+        final List<String> layers = new ArrayList();
+
+        public Spec noClassCycles() {
+            classCycles = true;
+            return this;
+        }
+
+        public Spec noPackageCycles() {
+            packageCycles = true;
+            return this;
+        }
+
+        /**
+         * Checks the boundaries of these modules.
+         */
+        public Spec modules(Collection<Module> modules) {
+            this.modules.addAll(modules);
+            return this;
+        }
+
+        /**
+         * Checks that every class is included by one of the modules.
+         */
+        public Spec noUnmodularizedBehavior() {
+            unmodularized = true;
+            return this;
+        }
+
+        /**
+         * Checks layers, given from the lowest to the highest.
+         */
+        public Spec layers(String...layers) {
+            this.layers.addAll(asList(layers));
+            return this;
+        }
+    }
+
+    public static Spec spec() {
+        return new Spec();
+    }
+
+    public interface Report {
+        List<String> classCycle();
+        List<String> packageCycle();
+        List<Core.ModuleInspection> modules();
+        Set<String> unmodularized();
+        List<Core.LayerViolation> layerViolations();
+        boolean passed();
+
+        /**
+         * Undeclared dependencies, unmodularized classes and layer violations,
+         * grouped by module, "meta-module" and layer respectively.
+         */
+        Violations violations();
+    }
+
+    /**
+     * Runs every check in the spec against this graph, sharing the derived
+     * views and a single traversal for all module checks.
+     */
+    public Report verify(Spec spec) {
+
+        List<String> classCycle = spec.classCycles ? firstClassCycle() : null;
+        List<String> packageCycle = spec.packageCycles ? firstPackageCycle() : null;
+
+        Inspection inspection = spec.modules.isEmpty() && !spec.unmodularized
+            ? new Inspection()
+            : inspect(spec.modules);
+        Set<String> unmodularized = spec.unmodularized ? inspection.unmodularized : new HashSet();
+
+        List<Core.LayerViolation> layerViolations = spec.layers.isEmpty()
+            ? new ArrayList()
+            : inspectLayers(spec.layers).violations();
+
+        Violations violations = Violations.undeclared(inspection.modules)
+            .addAll("meta-module", unmodularized);
+        for (Violations.Violation v : Violations.layers(layerViolations).list()) {
+            violations.add("layer " + v.group(), v.item());
+        }
+
+        boolean passed = classCycle == null
+            && packageCycle == null
+            && violations.isEmpty();
+
+        return new Report() {
+            public List<String> classCycle() { return classCycle; }
+            public List<String> packageCycle() { return packageCycle; }
+            public List<Core.ModuleInspection> modules() { return inspection.modules; }
+            public Set<String> unmodularized() { return unmodularized; }
+            public List<Core.LayerViolation> layerViolations() { return layerViolations; }
+            public boolean passed() { return passed; }
+            public Violations violations() { return violations; }
+
+            /*
+             * Shows at most Violations.SHOWN violations per group (the
+             * halp.violations.limit property, 20 by default); the full list is
+             * available from violations().
+             */
+            @Override
+            public String toString() {
+                StringBuilder sb = new StringBuilder();
+                if (classCycle != null) {
+                    sb.append("class cycle: ").append(classCycle).append('\n');
+                }
+                if (packageCycle != null) {
+                    sb.append("package cycle: ").append(packageCycle).append('\n');
+                }
+                sb.append(violations.render(Violations.SHOWN));
+                return sb.toString();
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package com.coxautodev.halp;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps the top-level class and package orders of a changing set of
+ * dependencies, for long-running sessions that are told about each edited
+ * class instead of analyzing everything again. A cycle is reported as soon
+ * as the dependency closing it is added, and adding or removing a dependency
+ * only costs in proportion to the part of the orders it affects.
+ */
+public class IncrementalGraph {
+
+    private final DynamicOrder classes = new DynamicOrder();
+    private final DynamicOrder packages = new DynamicOrder();
+
+    public static IncrementalGraph of(Collection<ClassInfo> deps) {
+        IncrementalGraph graph = new IncrementalGraph();
+        for (ClassInfo c : deps) {
+            graph.add(c);
+        }
+        return graph;
+    }
+
+    /**
+     * Adds a dependency between two classes. Returns the cycle between
+     * top-level classes it closes or, if there is none, the cycle between
+     * packages it closes, or null if it closes no cycle.
+     */
+    public List<String> addDependency(String from, String to) {
+        String fromClass = Core.toTopLevelClass(from);
+        String toClass = Core.toTopLevelClass(to);
+        List<String> classCycle = classes.add(fromClass, toClass);
+        List<String> packageCycle = packages.add(Core.toPackage(fromClass), Core.toPackage(toClass));
+        return classCycle != null ? classCycle : packageCycle;
+    }
+
+    /**
+     * Removes a dependency added before, returning false if there was none.
+     */
+    public boolean removeDependency(String from, String to) {
+        String fromClass = Core.toTopLevelClass(from);
+        String toClass = Core.toTopLevelClass(to);
+        if (!classes.remove(fromClass, toClass)) {
+            return false;
+        }
+        packages.remove(Core.toPackage(fromClass), Core.toPackage(toClass));
+        return true;
+    }
+
+    /**
+     * Adds all dependencies of the class, returning the first cycle one of
+     * them closes, as addDependency does.
+     */
+    public List<String> add(ClassInfo c) {
+        List<String> cycle = null;
+        for (String d : c.dependencies()) {
+            if (d != null) {
+                List<String> closed = addDependency(c.name(), d);
+                if (cycle == null) {
+                    cycle = closed;
+                }
+            }
+        }
+        return cycle;
+    }
+
+    /**
+     * Removes all dependencies of the class, e.g. before adding it again
+     * after an edit.
+     */
+    public void remove(ClassInfo c) {
+        for (String d : c.dependencies()) {
+            if (d != null) {
+                removeDependency(c.name(), d);
+            }
+        }
+    }
+
+    public List<String> firstClassCycle() {
+        return classes.firstCycle();
+    }
+
+    public List<String> firstPackageCycle() {
+        return packages.firstCycle();
+    }
+
+    /**
+     * Top-level classes in dependency order.
+     */
+    public List<String> classOrder() {
+        return classes.order();
+    }
+
+    /**
+     * Packages in dependency order.
+     */
+    public List<String> packageOrder() {
+        return packages.order();
+    }
+}
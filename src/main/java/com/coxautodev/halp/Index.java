@@ -0,0 +1,295 @@
+package com.coxautodev.halp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A precomputed dependency index stored in a jar as META-INF/halp.idx, so
+ * consumers of the jar don't need to parse its class files.
+ *
+ * The index is a binary ClassInfo table: a header naming the format and the
+ * Analyzer.VERSION that produced it, a string table, then one record per
+ * class file holding the entry name, the CRC-32 of the class file bytes and
+ * the dependencies. An index written by another analyzer version is ignored,
+ * and a record is only trusted if its checksum matches the checksum of the
+ * jar entry it describes.
+ */
+public class Index {
+
+    public static final String ENTRY = "META-INF/halp.idx";
+
+    private static final int MAGIC = 0x48414c50;
+    private static final int VERSION = 2;
+
+    static class Indexed {
+        final long crc;
+        final ClassInfo info;
+        Indexed(long crc, ClassInfo info) {
+            this.crc = crc;
+            this.info = info;
+        }
+    }
+
+    private static class StringTable {
+        final Map<String, Integer> ids = new HashMap();
+        final List<String> strings = new ArrayList();
+        int id(String s) {
+            Integer id = ids.get(s);
+            if (id == null) {
+                id = strings.size();
+                ids.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Reads the rest of the stream.
+     */
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Analyzes every class file in the jar and writes the index to out.
+     */
+    public static void write(ZipFile jar, OutputStream out) throws IOException {
+
+        StringTable table = new StringTable();
+        List<int[]> records = new ArrayList();
+        List<Long> checksums = new ArrayList();
+
+        Enumeration<? extends ZipEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry e = entries.nextElement();
+            if (e.getName().endsWith(".class")) {
+                byte[] bytes;
+                try (InputStream in = jar.getInputStream(e)) {
+                    bytes = readAll(in);
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                ClassInfo info = Analyzer.create(new ByteArrayInputStream(bytes));
+
+                int[] record = new int[info.dependencies().size() + 2];
+                record[0] = table.id(e.getName());
+                record[1] = table.id(info.name());
+                int i = 2;
+                for (String dep : info.dependencies()) {
+                    record[i++] = table.id(dep);
+                }
+                records.add(record);
+                checksums.add(crc.getValue());
+            }
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(Analyzer.VERSION);
+        data.writeInt(table.strings.size());
+        for (String s : table.strings) {
+            data.writeUTF(s);
+        }
+        data.writeInt(records.size());
+        for (int r = 0; r < records.size(); r++) {
+            int[] record = records.get(r);
+            data.writeInt(record[0]);
+            data.writeInt((int) (long) checksums.get(r));
+            data.writeInt(record[1]);
+            data.writeInt(record.length - 2);
+            for (int i = 2; i < record.length; i++) {
+                data.writeInt(record[i]);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Rewrites the jar in place with an up to date index.
+     */
+    public static void write(File jar) throws IOException {
+
+        File tmp = File.createTempFile(jar.getName(), ".tmp", jar.getAbsoluteFile().getParentFile());
+
+        try (ZipFile in = new ZipFile(jar);
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+
+            Enumeration<? extends ZipEntry> entries = in.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry e = entries.nextElement();
+                if (e.getName().equals(ENTRY)) {
+                    continue;
+                }
+                ZipEntry copy = new ZipEntry(e.getName());
+                copy.setTime(e.getTime());
+                out.putNextEntry(copy);
+                try (InputStream is = in.getInputStream(e)) {
+                    out.write(readAll(is));
+                }
+                out.closeEntry();
+            }
+
+            out.putNextEntry(new ZipEntry(ENTRY));
+            write(in, out);
+            out.closeEntry();
+        }
+        catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        Files.move(tmp.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the records of the classes m matches from the index of a jar,
+     * keyed by entry name. The dependencies of other classes are skipped
+     * without being decoded. Returns null if the jar
+     * has no index or the index is not in a format this version understands,
+     * including a truncated or otherwise corrupt one, so that the jar's class
+     * files are analyzed instead.
+     */
+    static Map<String, Indexed> read(ZipFile jar, Scanner.Matcher m) throws IOException {
+
+        ZipEntry entry = jar.getEntry(ENTRY);
+        if (entry == null) {
+            return null;
+        }
+
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(jar.getInputStream(entry)))) {
+
+            if (data.readInt() != MAGIC || data.readInt() != VERSION || data.readInt() != Analyzer.VERSION) {
+                return null;
+            }
+
+            int size = data.readInt();
+            if (size < 0 || (entry.getSize() >= 0 && size > entry.getSize())) {
+                return null;
+            }
+            String[] strings = new String[size];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = data.readUTF();
+            }
+
+            int count = data.readInt();
+            if (count < 0 || (entry.getSize() >= 0 && count > entry.getSize())) {
+                return null;
+            }
+            Map<String, Indexed> index = new HashMap();
+            for (int r = 0; r < count; r++) {
+                String entryName = strings[data.readInt()];
+                long crc = data.readInt() & 0xffffffffL;
+                String name = strings[data.readInt()];
+                int deps = data.readInt();
+                if (deps < 0) {
+                    return null;
+                }
+                if (!m.matches(name)) {
+                    if (data.skipBytes(deps * 4) != deps * 4) {
+                        return null;
+                    }
+                    continue;
+                }
+                Set<String> dependencies = new HashSet(deps * 2);
+                for (int i = 0; i < deps; i++) {
+                    dependencies.add(strings[data.readInt()]);
+                }
+                index.put(entryName, new Indexed(crc, Core.classInfo(name, dependencies)));
+            }
+            return index;
+        }
+        catch (EOFException | UTFDataFormatException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Rewrites each jar with an up to date index, several at a time. The
+     * largest jars are started first, so that a big jar picked up last does
+     * not keep the others waiting.
+     */
+    public static void write(List<File> jars) throws IOException {
+        List<URL> urls = new ArrayList();
+        for (File jar : jars) {
+            urls.add(jar.toURI().toURL());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(Runtime.getRuntime().availableProcessors(), Math.max(jars.size(), 1)));
+        try {
+            List<Future<?>> written = new ArrayList();
+            for (URL url : Scanner.largestFirst(urls)) {
+                written.add(pool.submit(() -> {
+                    write(new File(Scanner.path(url)));
+                    return null;
+                }));
+            }
+            for (Future<?> f : written) {
+                f.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Usage: Index jar...
+     *
+     * Intended to be run during packaging, e.g. via the exec-maven-plugin
+     * in the package phase.
+     */
+    public static void main(String[] args) throws IOException {
+        List<File> jars = new ArrayList();
+        for (String jar : args) {
+            jars.add(new File(jar));
+        }
+        write(jars);
+    }
+}
@@ -0,0 +1,239 @@
+package com.coxautodev.halp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Member-level dependencies: which method uses which method or field.
+ *
+ * Storage is columnar to stay small on large classpaths. Class names and
+ * member signatures (name plus descriptor) are interned once, every member is
+ * an int id into an owner column and a signature column, and every edge is a
+ * single long holding the using and the used member id. Members are found by
+ * owner and signature in an open addressing table of longs, and queries use
+ * forward and reverse offsets built once the edges are sorted.
+ */
+public class MemberGraph {
+
+    private final Map<String, Integer> stringIds = new HashMap();
+    private final List<String> strings = new ArrayList();
+
+    /* member keys (owner << 32 | signature) and ids + 1, 0 marking a free slot */
+    private long[] memberKeys = new long[2048];
+    private int[] memberIds = new int[2048];
+    private int[] owners = new int[1024];
+    private int[] signatures = new int[1024];
+    private int memberCount;
+
+    private long[] edges = new long[4096];
+    private int edgeCount;
+    private boolean compacted = true;
+
+    /*
+     * Built by compact: the edges of member m are edges[outStart[m]] until
+     * edges[outStart[m+1]], the members using m are in[inStart[m]] until
+     * in[inStart[m+1]], and the members of owner o are byOwner[ownerStart[o]]
+     * until byOwner[ownerStart[o+1]].
+     */
+    private int[] outStart = new int[1];
+    private int[] inStart = new int[1];
+    private int[] in = new int[0];
+    private int[] ownerStart = new int[1];
+    private int[] byOwner = new int[0];
+
+    private int string(String s) {
+        Integer id = stringIds.get(s);
+        if (id == null) {
+            id = strings.size();
+            stringIds.put(s, id);
+            strings.add(s);
+        }
+        return id;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] keys = memberKeys;
+        int[] ids = memberIds;
+        memberKeys = new long[keys.length * 2];
+        memberIds = new int[ids.length * 2];
+        int mask = memberKeys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (ids[i] != 0) {
+                int j = slot(keys[i], mask);
+                while (memberIds[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                memberKeys[j] = keys[i];
+                memberIds[j] = ids[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the id of a member, interning it if it has not been seen before.
+     */
+    int member(String owner, String name, String desc) {
+        int o = string(owner);
+        int s = string(desc.startsWith("(") ? name + desc : name + ":" + desc);
+        long key = ((long) o << 32) | s;
+        int mask = memberKeys.length - 1;
+        int i = slot(key, mask);
+        while (memberIds[i] != 0) {
+            if (memberKeys[i] == key) {
+                return memberIds[i] - 1;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (memberCount == owners.length) {
+            owners = Arrays.copyOf(owners, memberCount * 2);
+            signatures = Arrays.copyOf(signatures, memberCount * 2);
+        }
+        int id = memberCount++;
+        owners[id] = o;
+        signatures[id] = s;
+        memberKeys[i] = key;
+        memberIds[i] = id + 1;
+        if (memberCount * 2 > memberKeys.length) {
+            grow();
+        }
+        compacted = false;
+        return id;
+    }
+
+    void edge(int from, int to) {
+        if (edgeCount == edges.length) {
+            edges = Arrays.copyOf(edges, edgeCount * 2);
+        }
+        edges[edgeCount++] = ((long) from << 32) | to;
+        compacted = false;
+    }
+
+    /*
+     * Sorts and removes duplicate edges, e.g. a method calling another one
+     * twice, then builds the offsets queries use.
+     */
+    private void compact() {
+        if (compacted) {
+            return;
+        }
+        Arrays.sort(edges, 0, edgeCount);
+        int unique = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            if (unique == 0 || edges[unique - 1] != edges[e]) {
+                edges[unique++] = edges[e];
+            }
+        }
+        edgeCount = unique;
+
+        outStart = new int[memberCount + 1];
+        inStart = new int[memberCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            outStart[(int) (edges[e] >>> 32) + 1]++;
+            inStart[(int) edges[e] + 1]++;
+        }
+        for (int m = 0; m < memberCount; m++) {
+            outStart[m + 1] += outStart[m];
+            inStart[m + 1] += inStart[m];
+        }
+        in = new int[edgeCount];
+        int[] fill = Arrays.copyOf(inStart, memberCount);
+        for (int e = 0; e < edgeCount; e++) {
+            in[fill[(int) edges[e]]++] = (int) (edges[e] >>> 32);
+        }
+
+        ownerStart = new int[strings.size() + 1];
+        for (int m = 0; m < memberCount; m++) {
+            ownerStart[owners[m] + 1]++;
+        }
+        for (int o = 0; o < strings.size(); o++) {
+            ownerStart[o + 1] += ownerStart[o];
+        }
+        byOwner = new int[memberCount];
+        fill = Arrays.copyOf(ownerStart, strings.size());
+        for (int m = 0; m < memberCount; m++) {
+            byOwner[fill[owners[m]]++] = m;
+        }
+        compacted = true;
+    }
+
+    public int memberCount() {
+        return memberCount;
+    }
+
+    public int edgeCount() {
+        compact();
+        return edgeCount;
+    }
+
+    /**
+     * Renders a member as owner#name(descriptor) for methods and
+     * owner#name:descriptor for fields, e.g.
+     * ports.db.Repository#find(Ljava/lang/String;)Ljava/lang/Object;
+     */
+    public String member(int id) {
+        return strings.get(owners[id]) + "#" + strings.get(signatures[id]);
+    }
+
+    private boolean matches(int id, String name) {
+        if (name == null) {
+            return true;
+        }
+        String signature = strings.get(signatures[id]);
+        return signature.length() > name.length()
+            && signature.startsWith(name)
+            && (signature.charAt(name.length()) == '(' || signature.charAt(name.length()) == ':');
+    }
+
+    private Set<String> select(String owner, String name, boolean callers) {
+        compact();
+        Set<String> result = new HashSet();
+        Integer o = stringIds.get(owner);
+        if (o == null) {
+            return result;
+        }
+        for (int i = ownerStart[o]; i < ownerStart[o + 1]; i++) {
+            int m = byOwner[i];
+            if (!matches(m, name)) {
+                continue;
+            }
+            if (callers) {
+                for (int e = inStart[m]; e < inStart[m + 1]; e++) {
+                    result.add(member(in[e]));
+                }
+            }
+            else {
+                for (int e = outStart[m]; e < outStart[m + 1]; e++) {
+                    result.add(member((int) edges[e]));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the members that use the named member of owner. Method names
+     * match every overload, field names match the field. A null name matches
+     * every member of owner.
+     */
+    public Set<String> users(String owner, String name) {
+        return select(owner, name, true);
+    }
+
+    /**
+     * Returns the members used by the named member of owner.
+     */
+    public Set<String> uses(String owner, String name) {
+        return select(owner, name, false);
+    }
+}
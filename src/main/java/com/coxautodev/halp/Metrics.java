@@ -0,0 +1,151 @@
+package com.coxautodev.halp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Afferent coupling, efferent coupling and instability per package or module,
+ * in the sense of Robert C. Martin: Ca counts classes outside a group that
+ * depend on it, Ce counts classes inside a group that depend on something
+ * outside it, and instability is Ce / (Ca + Ce). Dependencies on java.* and
+ * javax.* are ignored.
+ *
+ * All groups are computed in one pass over the class-level edges, using
+ * primitive counter arrays indexed by group id.
+ */
+public class Metrics {
+
+    public interface Coupling {
+        String name();
+        int afferent();
+        int efferent();
+        double instability();
+    }
+
+    private static Coupling coupling(String name, int afferent, int efferent) {
+        double instability = afferent + efferent == 0 ? 0 : efferent / (double) (afferent + efferent);
+        return new Coupling() {
+            public String name() { return name; }
+            public int afferent() { return afferent; }
+            public int efferent() { return efferent; }
+            public double instability() { return instability; }
+
+            @Override
+            public String toString() {
+                return name + " Ca=" + afferent + " Ce=" + efferent + " I=" + instability;
+            }
+        };
+    }
+
+    /*
+     * group[v] is the group of node v, or -1 if it belongs to none. Only groups
+     * containing analyzed classes are reported. Analyzed classes outside every
+     * group still count towards the afferent coupling of the groups they use,
+     * like classes of other groups do.
+     */
+    static List<Coupling> compute(ClassGraph g, int[] group, String[] groupNames) {
+
+        int groups = groupNames.length;
+        int[] afferent = new int[groups];
+        int[] efferent = new int[groups];
+        boolean[] populated = new boolean[groups];
+        int[] seenBy = new int[groups];
+
+        boolean[] builtin = new boolean[g.size()];
+        for (int v = 0; v < g.size(); v++) {
+            builtin[v] = Core.isBuiltin(g.names[v]);
+        }
+
+        for (int v = 0; v < g.size(); v++) {
+            int p = group[v];
+            if (!g.analyzed[v]) {
+                continue;
+            }
+            boolean external = false;
+            for (int e = g.outStart[v]; e < g.outStart[v + 1]; e++) {
+                int w = g.out[e];
+                int q = group[w];
+                if (builtin[w] || q == p) {
+                    continue;
+                }
+                external = true;
+                // count each depending class once per target group
+                if (q >= 0 && seenBy[q] != v + 1) {
+                    seenBy[q] = v + 1;
+                    afferent[q]++;
+                }
+            }
+            if (p >= 0) {
+                populated[p] = true;
+                if (external) {
+                    efferent[p]++;
+                }
+            }
+        }
+
+        List<Coupling> result = new ArrayList();
+        for (int p = 0; p < groups; p++) {
+            if (populated[p]) {
+                result.add(coupling(groupNames[p], afferent[p], efferent[p]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Coupling per package, in package name order.
+     */
+    public static List<Coupling> packages(ClassGraph g) {
+        String[] packages = new String[g.size()];
+        Set<String> distinct = new HashSet();
+        for (int v = 0; v < g.size(); v++) {
+            packages[v] = Core.toPackage(g.names[v]);
+            distinct.add(packages[v]);
+        }
+
+        String[] names = distinct.toArray(new String[0]);
+        Arrays.sort(names);
+        Map<String, Integer> ids = new HashMap(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+
+        int[] group = new int[g.size()];
+        for (int v = 0; v < g.size(); v++) {
+            group[v] = ids.get(packages[v]);
+        }
+        return compute(g, group, names);
+    }
+
+    /**
+     * Coupling per module. Classes included by several modules count towards
+     * the first one.
+     */
+    public static List<Coupling> modules(ClassGraph g, Collection<Module> modules) {
+        List<Module> list = new ArrayList(modules);
+        String[] names = new String[list.size()];
+        Patterns.PatternMatcher[] includes = new Patterns.PatternMatcher[list.size()];
+        for (int m = 0; m < list.size(); m++) {
+            names[m] = list.get(m).name();
+            includes[m] = Patterns.pattern(list.get(m).includes());
+        }
+
+        int[] group = new int[g.size()];
+        for (int v = 0; v < g.size(); v++) {
+            group[v] = -1;
+            for (int m = 0; m < includes.length; m++) {
+                if (includes[m].matches(g.names[v])) {
+                    group[v] = m;
+                    break;
+                }
+            }
+        }
+        return compute(g, group, names);
+    }
+}
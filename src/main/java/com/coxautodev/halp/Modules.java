@@ -65,11 +65,61 @@ public class Modules {
 
     public static Builder module(String name) { return new BuilderImpl(name); }
 
+    public interface Overlap {
+        Module first();
+        Module second();
+        String firstInclude();
+        String secondInclude();
+        String sample();
+    }
+
+    /**
+     * Finds includes of different modules that claim the same classes, by
+     * intersecting every pair of include patterns.
+     */
+    public static List<Overlap> overlaps(Collection<Module> modules) {
+        List<Module> list = new ArrayList(modules);
+        List<Overlap> overlaps = new ArrayList();
+        for (int m = 0; m < list.size(); m++) {
+            for (int n = m + 1; n < list.size(); n++) {
+                Module first = list.get(m);
+                Module second = list.get(n);
+                for (String a : first.includes()) {
+                    for (String b : second.includes()) {
+                        String sample = Patterns.intersection(a, b);
+                        if (sample != null) {
+                            overlaps.add(new Overlap() {
+                                public Module first() { return first; }
+                                public Module second() { return second; }
+                                public String firstInclude() { return a; }
+                                public String secondInclude() { return b; }
+                                public String sample() { return sample; }
+
+                                @Override
+                                public String toString() {
+                                    return first.name() + " (" + a + ") and " + second.name() + " (" + b + "), e.g. " + sample;
+                                }
+                            });
+                        }
+                    }
+                }
+            }
+        }
+        return overlaps;
+    }
+
+    /**
+     * Builds the modules, failing if two of them include the same classes.
+     */
     public static Set<Module> modules(Builder...builders) {
         Set<Module> modules = new HashSet();
         for (Builder b : builders) {
             modules.add(b.build());
         }
+        List<Overlap> overlaps = overlaps(modules);
+        if (!overlaps.isEmpty()) {
+            throw new IllegalArgumentException("modules include the same classes: " + overlaps);
+        }
         return modules;
     }
 
@@ -1,9 +1,14 @@
 package com.coxautodev.halp;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -114,4 +119,248 @@ public class Patterns {
             }
         };
     }
+
+    private static final char STAR = 0;
+    private static final char DOUBLE_STAR = 1;
+
+    private static final String regexChars = "()[]{}|?+^\\";
+
+    /*
+     * Compiles a glob into tokens: literal characters, STAR for '*' and
+     * DOUBLE_STAR for '**'. Returns null if the include uses regex syntax beyond
+     * globs, which the automaton does not model.
+     */
+    private static char[] tokens(String include) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < include.length(); i++) {
+            char c = include.charAt(i);
+            if (regexChars.indexOf(c) >= 0 || c == STAR || c == DOUBLE_STAR) {
+                return null;
+            }
+            if (c == '*') {
+                if (i + 1 < include.length() && include.charAt(i + 1) == '*') {
+                    sb.append(DOUBLE_STAR);
+                    i++;
+                }
+                else {
+                    sb.append(STAR);
+                }
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toCharArray();
+    }
+
+    /* the position reached by consuming c at position i, or -1 */
+    private static int step(char[] tokens, int i, char c) {
+        if (i == tokens.length) {
+            return -1;
+        }
+        switch (tokens[i]) {
+            case STAR: return c == '.' ? -1 : i;
+            case DOUBLE_STAR: return i;
+            default: return tokens[i] == c ? i + 1 : -1;
+        }
+    }
+
+    private static boolean isStar(char[] tokens, int i) {
+        return i < tokens.length && (tokens[i] == STAR || tokens[i] == DOUBLE_STAR);
+    }
+
+    /**
+     * Intersects two include globs without touching the classpath, by a breadth
+     * first search over the product of their automata. Only class names are
+     * considered, i.e. no empty segments. Returns the shortest class name both
+     * globs match, or null if they are disjoint or use regex syntax.
+     */
+    public static String intersection(String a, String b) {
+
+        char[] ta = tokens(a);
+        char[] tb = tokens(b);
+        if (ta == null || tb == null) {
+            return null;
+        }
+
+        // one representative for every character class the globs distinguish
+        StringBuilder alphabet = new StringBuilder(".");
+        for (char[] t : asList(ta, tb)) {
+            for (char c : t) {
+                if (c != STAR && c != DOUBLE_STAR && alphabet.indexOf(String.valueOf(c)) < 0) {
+                    alphabet.append(c);
+                }
+            }
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            if (alphabet.indexOf(String.valueOf(c)) < 0) {
+                alphabet.append(c);
+                break;
+            }
+        }
+
+        // a state is (position in a, position in b, whether the last char was '.' or there was none)
+        int width = tb.length + 1;
+        int states = (ta.length + 1) * width * 2;
+        int[] parent = new int[states];
+        char[] via = new char[states];
+        Arrays.fill(parent, -2);
+
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        int start = 1;
+        parent[start] = -1;
+        queue[tail++] = start;
+
+        while (head < tail) {
+            int state = queue[head++];
+            boolean afterDot = (state & 1) == 1;
+            int i = (state >> 1) / width;
+            int j = (state >> 1) % width;
+
+            if (i == ta.length && j == tb.length && !afterDot) {
+                StringBuilder sample = new StringBuilder();
+                for (int s = state; parent[s] != -1; s = parent[s]) {
+                    if (via[s] != 0) {
+                        sample.append(via[s]);
+                    }
+                }
+                return sample.reverse().toString();
+            }
+
+            List<int[]> next = new ArrayList();
+            if (isStar(ta, i)) next.add(new int[] {i + 1, j, afterDot ? 1 : 0, 0});
+            if (isStar(tb, j)) next.add(new int[] {i, j + 1, afterDot ? 1 : 0, 0});
+            for (int k = 0; k < alphabet.length(); k++) {
+                char c = alphabet.charAt(k);
+                if (c == '.' && afterDot) {
+                    continue;
+                }
+                int ni = step(ta, i, c);
+                int nj = step(tb, j, c);
+                if (ni >= 0 && nj >= 0) {
+                    next.add(new int[] {ni, nj, c == '.' ? 1 : 0, c});
+                }
+            }
+
+            for (int[] n : next) {
+                int s = ((n[0] * width + n[1]) << 1) | n[2];
+                if (parent[s] == -2) {
+                    parent[s] = state;
+                    via[s] = (char) n[3];
+                    queue[tail++] = s;
+                }
+            }
+        }
+        return null;
+    }
+
+    /* the positions reached from the given ones by skipping stars */
+    private static long closure(char[] tokens, long positions) {
+        for (int i = 0; i < tokens.length; i++) {
+            if ((positions & (1L << i)) != 0 && isStar(tokens, i)) {
+                positions |= 1L << (i + 1);
+            }
+        }
+        return positions;
+    }
+
+    private static long step(char[] tokens, long positions, char c) {
+        long next = 0;
+        for (int i = 0; i <= tokens.length; i++) {
+            if ((positions & (1L << i)) != 0) {
+                int n = step(tokens, i, c);
+                if (n >= 0) {
+                    next |= 1L << n;
+                }
+            }
+        }
+        return closure(tokens, next);
+    }
+
+    /**
+     * Returns true if every class name inner matches is also matched by outer,
+     * by a search over the product of their determinized automata. Answers
+     * false whenever it cannot tell, i.e. for regex syntax other than equal
+     * patterns and for globs longer than 62 characters.
+     */
+    public static boolean covers(String outer, String inner) {
+
+        if (outer.equals(inner)) {
+            return true;
+        }
+        char[] to = tokens(outer);
+        char[] ti = tokens(inner);
+        if (to == null || ti == null || to.length > 62 || ti.length > 62) {
+            return false;
+        }
+
+        StringBuilder alphabet = new StringBuilder(".");
+        for (char[] t : asList(to, ti)) {
+            for (char c : t) {
+                if (c != STAR && c != DOUBLE_STAR && alphabet.indexOf(String.valueOf(c)) < 0) {
+                    alphabet.append(c);
+                }
+            }
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            if (alphabet.indexOf(String.valueOf(c)) < 0) {
+                alphabet.append(c);
+                break;
+            }
+        }
+
+        long acceptOuter = 1L << to.length;
+        long acceptInner = 1L << ti.length;
+
+        // a state is (positions in inner, positions in outer, whether the last char was '.' or there was none)
+        Set<List<Long>> seen = new HashSet();
+        Deque<long[]> queue = new ArrayDeque();
+        queue.add(new long[] {closure(ti, 1), closure(to, 1), 1});
+        seen.add(asList(closure(ti, 1), closure(to, 1), 1L));
+
+        while (!queue.isEmpty()) {
+            long[] state = queue.poll();
+            boolean afterDot = state[2] == 1;
+            if (!afterDot && (state[0] & acceptInner) != 0 && (state[1] & acceptOuter) == 0) {
+                return false;
+            }
+            for (int k = 0; k < alphabet.length(); k++) {
+                char c = alphabet.charAt(k);
+                if (c == '.' && afterDot) {
+                    continue;
+                }
+                long ni = step(ti, state[0], c);
+                if (ni == 0) {
+                    continue;
+                }
+                long no = step(to, state[1], c);
+                long dot = c == '.' ? 1 : 0;
+                if (seen.add(asList(ni, no, dot))) {
+                    queue.add(new long[] {ni, no, dot});
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if every class name matched by one of inner is matched by
+     * one of outer. Each inner pattern must be covered by a single outer one.
+     */
+    public static boolean covers(Iterable<String> outer, Iterable<String> inner) {
+        for (String i : inner) {
+            boolean covered = false;
+            for (String o : outer) {
+                if (covers(o, i)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -1,10 +1,10 @@
 package com.coxautodev.halp;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLDecoder;
@@ -14,16 +14,31 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
 
+/**
+ * Finds class files on the classpath. A class is handed on once, from the
+ * first jar or directory it appears in; later copies are skipped.
+ */
 public class Scanner {
 
     @FunctionalInterface
@@ -60,12 +75,56 @@ public class Scanner {
         void handle(InputStream in) throws IOException;
     }
 
+    @FunctionalInterface
+    public interface InfoHandler {
+        void handle(ClassInfo info);
+    }
+
+    /**
+     * Told about each jar or directory before its classes are handed on, so
+     * every class can be attributed to the artifact it came from. Artifacts
+     * are numbered from 0 in classpath order.
+     */
+    @FunctionalInterface
+    public interface ArtifactListener {
+        void enter(int artifact, URL url);
+    }
+
+    /**
+     * Told about each class found again after its first copy on the classpath.
+     * Identical copies are recognized by the checksum and size of their bytes.
+     */
+    @FunctionalInterface
+    public interface DuplicateListener {
+        void duplicate(String className, URL first, URL copy, boolean identical);
+    }
+
+    /**
+     * Decides whether a class is the first copy of it found on the classpath,
+     * remembering it if so. Callers that intern class names anyway can answer
+     * from their own tables, so the scanner keeps nothing per class.
+     */
+    @FunctionalInterface
+    public interface FirstCopies {
+        boolean first(String className);
+    }
+
     private static String pathToClassName(String path) {
         return path
             .replaceAll("\\.class$", "")
             .replaceAll("/", ".");
     }
 
+    /* the local path of a classpath entry */
+    static String path(URL url) {
+        try {
+            return new File(URLDecoder.decode(url.getFile(), "UTF-8")).getPath();
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private static URL makeUrl(String s) {
         try {
             return new URL(s);
@@ -112,27 +171,279 @@ public class Scanner {
         return null;
     };
 
-    public static URLSource defaultSource = () -> {
-        List<URL> urls = surefireForkSource.urls();
-        if (urls == null) {
-            urls = urlClassloaderSource.urls();
+    /* the canonical files named by a jar's manifest Class-Path, or none */
+    private static List<File> manifestClassPath(File jar) {
+        List<File> entries = new ArrayList();
+        try (JarFile jarFile = new JarFile(jar)) {
+            Manifest manifest = jarFile.getManifest();
+            String classPath = manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) : null;
+            if (classPath != null) {
+                URL base = jar.toURI().toURL();
+                for (String entry : classPath.trim().split("\\s+")) {
+                    URL url = new URL(base, entry);
+                    if (!entry.isEmpty() && url.getProtocol().equals("file")) {
+                        File f = new File(path(url)).getCanonicalFile();
+                        if (f.exists()) {
+                            entries.add(f);
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            // not a readable jar, so there is nothing to expand
+        }
+        return entries;
+    }
+
+    /* adds f and, depth first, the entries its manifest pulls in, skipping ones seen before */
+    private static void addInClasspathOrder(File f, Map<File, List<File>> classPaths, Set<File> ordered) {
+        if (ordered.add(f)) {
+            for (File entry : classPaths.getOrDefault(f, emptyList())) {
+                addInClasspathOrder(entry, classPaths, ordered);
+            }
+        }
+    }
+
+    /**
+     * Reads the classpath from the java.class.path property, so it works
+     * whatever the class loader. Manifest Class-Path entries of jars (as in a
+     * surefire booter jar) are followed recursively, reading the manifests of
+     * each level in parallel. Entries are canonicalized, so a jar or directory
+     * reached through symlinks or relative paths is scanned once, and are
+     * kept in the order the JVM would search them.
+     */
+    public static URLSource classpathSource = () -> {
+        List<File> roots = new ArrayList();
+        for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                try {
+                    File f = new File(entry).getCanonicalFile();
+                    if (f.exists()) {
+                        roots.add(f);
+                    }
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        Map<File, List<File>> classPaths = new HashMap();
+        List<File> level = roots;
+        while (!level.isEmpty()) {
+            Map<File, List<File>> read = level.stream()
+                .distinct()
+                .filter(f -> f.isFile() && !classPaths.containsKey(f))
+                .collect(toList())
+                .parallelStream()
+                .collect(toMap(f -> f, Scanner::manifestClassPath));
+            classPaths.putAll(read);
+            level = read.values().stream().flatMap(List::stream).collect(toList());
+        }
+
+        Set<File> ordered = new LinkedHashSet();
+        for (File f : roots) {
+            addInClasspathOrder(f, classPaths, ordered);
+        }
+
+        List<URL> urls = new ArrayList(ordered.size());
+        for (File f : ordered) {
+            try {
+                urls.add(f.toURI().toURL());
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
         return urls;
     };
 
+    public static URLSource defaultSource = classpathSource;
+
+    private static long size(URL url) {
+        File f = new File(path(url));
+        if (f.isFile()) {
+            return f.length();
+        }
+        try (Stream<Path> files = Files.walk(f.toPath())) {
+            return files.mapToLong(p -> p.toFile().length()).sum();
+        }
+        catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the urls largest first, for spreading work over several threads
+     * so the biggest artifacts do not start last, as Index.write does for
+     * several jars. Scans keep the classpath order instead, since the first
+     * copy of a class wins.
+     */
+    public static List<URL> largestFirst(List<URL> urls) {
+        Map<URL, Long> sizes = new HashMap();
+        for (URL url : urls) {
+            sizes.put(url, size(url));
+        }
+        List<URL> sorted = new ArrayList(urls);
+        sorted.sort((a, b) -> Long.compare(sizes.get(b), sizes.get(a)));
+        return sorted;
+    }
+
+    /**
+     * Like scan, but also tells duplicates about every class found again
+     * after its first copy, and whether the copies' bytes are identical.
+     */
+    public static void scan(Matcher m, Handler h, DuplicateListener duplicates, URLSource source) {
+        scan(m, h, null, null, duplicates != null ? new Copies(duplicates) : new Copies(), source);
+    }
+
     public static void scan(Matcher m, Handler h, URLSource source) {
+        scan(m, h, null, null, new Copies(), source);
+    }
+
+    /**
+     * Scans the class files, handing the analyzed classes to h. Classes in jars
+     * that carry an index with a matching checksum are taken from the index
+     * instead of being parsed.
+     */
+    public static void analyze(Matcher m, InfoHandler h, URLSource source) {
+        scan(m, in -> h.handle(Analyzer.create(in)), h, null, new Copies(), source);
+    }
+
+    /**
+     * Like analyze, but asks firstCopies which classes to hand on, e.g. to
+     * check class names against an id table the caller keeps anyway.
+     */
+    public static void analyze(Matcher m, InfoHandler h, FirstCopies firstCopies, URLSource source) {
+        scan(m, in -> h.handle(Analyzer.create(in)), h, null, new Copies(firstCopies), source);
+    }
+
+    /**
+     * Like analyze, but also tells artifacts which jar or directory the
+     * classes that follow come from.
+     */
+    public static void analyze(Matcher m, InfoHandler h, ArtifactListener artifacts, URLSource source) {
+        scan(m, in -> h.handle(Analyzer.create(in)), h, artifacts, new Copies(), source);
+    }
+
+    public static void analyze(Matcher m, InfoHandler h) {
+        analyze(m, h, defaultSource);
+    }
+
+    /**
+     * Scans the class files, analyzing them to the given depth. Jar indexes
+     * only hold full analyses, so they are used for Depth.FULL alone.
+     */
+    public static void analyze(Matcher m, Analyzer.Depth depth, InfoHandler h, URLSource source) {
+        if (depth == Analyzer.Depth.FULL) {
+            analyze(m, h, source);
+        }
+        else {
+            scan(m, in -> h.handle(Analyzer.create(in, depth)), source);
+        }
+    }
+
+    /*
+     * Tells the first copy of each class in classpath order, which is handed
+     * on, from later ones, which are skipped without being parsed. By default
+     * only the names seen are kept. The checksum, size and artifact of every
+     * class are only kept for a DuplicateListener, which is told whether each
+     * later copy is identical to the first one.
+     */
+    private static class Copies {
+
+        private static class Copy {
+            final long crc;
+            final long size;
+            final int artifact;
+            Copy(long crc, long size, int artifact) {
+                this.crc = crc;
+                this.size = size;
+                this.artifact = artifact;
+            }
+        }
+
+        private final FirstCopies names;
+        private final Map<String, Copy> seen;
+        private final DuplicateListener duplicates;
+        private List<URL> urls;
+
+        Copies(FirstCopies names) {
+            this.names = names;
+            this.seen = null;
+            this.duplicates = null;
+        }
+
+        Copies() {
+            this(new HashSet<String>()::add);
+        }
+
+        Copies(DuplicateListener duplicates) {
+            this.names = null;
+            this.seen = new HashMap();
+            this.duplicates = duplicates;
+        }
+
+        /* whether first needs the checksum and size of the class */
+        boolean comparesContents() {
+            return seen != null;
+        }
+
+        boolean first(String className, long crc, long size, int artifact) {
+            if (seen == null) {
+                return names.first(className);
+            }
+            Copy first = seen.get(className);
+            if (first == null) {
+                seen.put(className, new Copy(crc, size, artifact));
+                return true;
+            }
+            boolean identical = first.crc == crc && first.size == size;
+            duplicates.duplicate(className, urls.get(first.artifact), urls.get(artifact), identical);
+            return false;
+        }
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    /* reads a class file, handing it on if it is the first copy of its class */
+    private static void scanFile(File f, String className, int artifact, Copies copies, Handler h) throws IOException {
+        if (!copies.comparesContents()) {
+            if (copies.first(className, 0, 0, artifact)) {
+                h.handle(new ByteArrayInputStream(Files.readAllBytes(f.toPath())));
+            }
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(f.toPath());
+        if (copies.first(className, crc(bytes), bytes.length, artifact)) {
+            h.handle(new ByteArrayInputStream(bytes));
+        }
+    }
+
+    private static void scan(Matcher m, Handler h, InfoHandler indexed, ArtifactListener artifacts, Copies copies, URLSource source) {
         try {
-            for (URL url : source.urls()) {
+            List<URL> urls = source.urls();
+            copies.urls = urls;
+            for (int i = 0; i < urls.size(); i++) {
+                final URL url = urls.get(i);
+                final int artifact = i;
+                if (artifacts != null) {
+                    artifacts.enter(artifact, url);
+                }
 
                 final String rawFile = url.getFile();
                 final File file = new File(URLDecoder.decode(rawFile, "UTF-8"));
                 final String fileName = file.getName();
 
                 if (fileName.endsWith(".class")) {
-                    if (m.matches(pathToClassName(fileName))) {
-                        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
-                            h.handle(in);
-                        }
+                    String className = pathToClassName(fileName);
+                    if (m.matches(className)) {
+                        scanFile(file, className, artifact, copies, h);
                     }
                 } else if (file.isDirectory()) {
                     final String root = file.getPath();
@@ -144,24 +455,32 @@ public class Scanner {
                                 relativePath = relativePath.substring(1);
                             }
 
-                            if (m.matches(pathToClassName(relativePath))) {
-                                try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
-                                    h.handle(in);
-                                }
+                            String className = pathToClassName(relativePath);
+                            if (m.matches(className)) {
+                                scanFile(f, className, artifact, copies, h);
                             }
                         }
                     }));
                 } else if (fileName.endsWith(".jar")) {
-                    ZipFile zipFile = new ZipFile(file);
-                    Enumeration<ZipEntry> entries = (Enumeration) zipFile.entries();
+                    try (ZipFile zipFile = new ZipFile(file)) {
+                        Enumeration<ZipEntry> entries = (Enumeration) zipFile.entries();
+                        Map<String, Index.Indexed> index = indexed != null ? Index.read(zipFile, m) : null;
 
-                    while (entries.hasMoreElements()) {
-                        ZipEntry e = entries.nextElement();
-                        if (e.getName().endsWith(".class")) {
+                        while (entries.hasMoreElements()) {
+                            ZipEntry e = entries.nextElement();
+                            if (e.getName().endsWith(".class")) {
 
-                            if (m.matches(pathToClassName(e.getName()))) {
-                                try (InputStream in = zipFile.getInputStream(e)) {
-                                    h.handle(in);
+                                String className = pathToClassName(e.getName());
+                                if (m.matches(className) && copies.first(className, e.getCrc(), e.getSize(), artifact)) {
+                                    Index.Indexed ix = index != null ? index.get(e.getName()) : null;
+                                    if (ix != null && ix.crc == e.getCrc()) {
+                                        indexed.handle(ix.info);
+                                    }
+                                    else {
+                                        try (InputStream in = zipFile.getInputStream(e)) {
+                                            h.handle(in);
+                                        }
+                                    }
                                 }
                             }
                         }
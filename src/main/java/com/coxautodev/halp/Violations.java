@@ -0,0 +1,181 @@
+package com.coxautodev.halp;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Violations grouped by what they belong to, e.g. undeclared dependencies by
+ * module. Rendering streams to a Writer and can be truncated to the first few
+ * violations per group, so thousands of violations neither take long to
+ * format nor flood a test report; the full list can be exported to a file.
+ */
+public class Violations {
+
+    public interface Violation {
+        String group();
+        String item();
+    }
+
+    /**
+     * How many violations per group reports show, from the
+     * halp.violations.limit system property.
+     */
+    public static final int SHOWN = Integer.getInteger("halp.violations.limit", 20);
+
+    private final Map<String, List<String>> groups = new TreeMap();
+    private int size;
+
+    /**
+     * Undeclared dependencies grouped by module.
+     */
+    public static Violations undeclared(Collection<Core.ModuleInspection> inspections) {
+        Violations v = new Violations();
+        for (Core.ModuleInspection r : inspections) {
+            v.addAll(r.moduleName(), r.undeclared());
+        }
+        return v;
+    }
+
+    /**
+     * Dependencies pointing to a higher layer, grouped by the layer they start from.
+     */
+    public static Violations layers(Collection<Core.LayerViolation> violations) {
+        Violations v = new Violations();
+        for (Core.LayerViolation l : violations) {
+            v.add(l.fromLayer(), l.from() + " -> " + l.to() + " (" + l.toLayer() + ")");
+        }
+        return v;
+    }
+
+    public Violations add(String group, String item) {
+        List<String> items = groups.get(group);
+        if (items == null) {
+            items = new ArrayList();
+            groups.put(group, items);
+        }
+        items.add(item);
+        size++;
+        return this;
+    }
+
+    public Violations addAll(String group, Collection<String> items) {
+        for (String item : items) {
+            add(group, item);
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<Violation> list() {
+        List<Violation> list = new ArrayList(size);
+        for (Map.Entry<String, List<String>> e : groups.entrySet()) {
+            String group = e.getKey();
+            for (String item : e.getValue()) {
+                list.add(new Violation() {
+                    public String group() { return group; }
+                    public String item() { return item; }
+                });
+            }
+        }
+        return list;
+    }
+
+    /*
+     * The first limit items in name order, without sorting the rest or
+     * reordering the group.
+     */
+    private static List<String> first(List<String> items, int limit) {
+        if (limit >= items.size()) {
+            List<String> sorted = new ArrayList(items);
+            Collections.sort(sorted);
+            return sorted;
+        }
+        PriorityQueue<String> largest = new PriorityQueue(limit + 1, Collections.reverseOrder());
+        for (String item : items) {
+            largest.add(item);
+            if (largest.size() > limit) {
+                largest.poll();
+            }
+        }
+        List<String> sorted = new ArrayList(largest);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Writes each group with at most limit of its violations, in name order,
+     * followed by a count of the ones left out.
+     */
+    public void render(Writer out, int limit) throws IOException {
+        for (Map.Entry<String, List<String>> e : groups.entrySet()) {
+            List<String> items = e.getValue();
+            out.write(e.getKey());
+            out.write(" (");
+            out.write(Integer.toString(items.size()));
+            out.write("):\n");
+            List<String> shown = first(items, Math.max(0, limit));
+            for (String item : shown) {
+                out.write("    ");
+                out.write(item);
+                out.write('\n');
+            }
+            if (shown.size() < items.size()) {
+                out.write("    ... and ");
+                out.write(Integer.toString(items.size() - shown.size()));
+                out.write(" more\n");
+            }
+        }
+    }
+
+    public String render(int limit) {
+        StringWriter sw = new StringWriter();
+        try {
+            render(sw, limit);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sw.toString();
+    }
+
+    /**
+     * Writes every violation to the file, one group and item per line.
+     */
+    public void export(File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, List<String>> e : groups.entrySet()) {
+                for (String item : e.getValue()) {
+                    out.write(e.getKey());
+                    out.write('\t');
+                    out.write(item);
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return render(Integer.MAX_VALUE);
+    }
+}
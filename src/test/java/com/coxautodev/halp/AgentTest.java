@@ -0,0 +1,24 @@
+package com.coxautodev.halp;
+
+import com.coxautodev.halp.aneedsb.a.A;
+import org.junit.Test;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AgentTest {
+
+    @Test public void agentAnalyzesLoadedBytes() throws Exception {
+        byte[] bytes = TestClasses.bytes(A.class);
+
+        ClassFileTransformer t = Agent.transformer(Patterns.pattern("com.coxautodev.halp.aneedsb.**"));
+        assertNull(t.transform(null, "com/coxautodev/halp/aneedsb/a/A", null, null, bytes));
+        assertNull(t.transform(null, "com/coxautodev/halp/Other", null, null, bytes));
+
+        List<ClassInfo> loaded = Agent.loadedClasses();
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.get(0).dependencies().contains("com.coxautodev.halp.aneedsb.b.B"));
+    }
+}
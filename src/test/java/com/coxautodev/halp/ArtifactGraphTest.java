@@ -0,0 +1,20 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class ArtifactGraphTest {
+
+    @Test public void artifactGraph() {
+        ArtifactGraph artifacts = Core.analyzeArtifacts("com.coxautodev.halp.**");
+        String classes = artifacts.artifacts().stream().filter(a -> a.endsWith("classes") && !a.endsWith("test-classes")).findFirst().get();
+        String testClasses = artifacts.artifacts().stream().filter(a -> a.endsWith("test-classes")).findFirst().get();
+
+        assertTrue(artifacts.classCount("classes") > 0);
+        assertEquals(asList(testClasses), artifacts.users(classes));
+        assertEquals(asList(classes), artifacts.dependencies("test-classes"));
+        assertEquals(asList(testClasses), artifacts.unused());
+    }
+}
@@ -30,6 +30,10 @@ public class AssertionsTest {
         assertNoPackageCycles(aNeedsB);
     }
 
+    @Test public void noClasspathConflicts() {
+        assertNoClasspathConflicts("com.coxautodev.halp.**");
+    }
+
     @Test(expected = AssertionError.class) public void boundaryViolations() {
         assertModuleBoundaries(
             aNeedsB,
@@ -62,4 +66,29 @@ public class AssertionsTest {
                 module("a")
                     .include("**.aneedsb.b.*")));
     }
+
+    @Test(expected = AssertionError.class) public void layerViolations() {
+        assertLayers(aNeedsB, "**.aneedsb.a.*", "**.aneedsb.b.*");
+    }
+
+    @Test public void noLayerViolations() {
+        assertLayers(aNeedsB, "**.aneedsb.b.*", "**.aneedsb.a.*");
+    }
+
+    @Test(expected = AssertionError.class) public void verifyFailure() {
+        Graph graph = Graph.of(analyzeClasspath("com.coxautodev.halp.packageCycle.**"));
+        assertVerified(graph, Graph.spec().noClassCycles().noPackageCycles());
+    }
+
+    @Test public void verify() {
+        Graph graph = Graph.of(aNeedsB);
+        assertVerified(graph, Graph.spec()
+            .noClassCycles()
+            .noPackageCycles()
+            .modules(modules(
+                module("a").include("**.aneedsb.a.*").use("**.aneedsb.b.*"),
+                module("b").include("**.aneedsb.b.*")))
+            .noUnmodularizedBehavior()
+            .layers("**.aneedsb.b.*", "**.aneedsb.a.*"));
+    }
 }
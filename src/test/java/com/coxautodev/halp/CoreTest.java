@@ -4,9 +4,14 @@ import com.coxautodev.halp.nestedArrays.NestedArrays;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static com.coxautodev.halp.Core.classInfo;
+import static com.coxautodev.halp.Modules.module;
+import static com.coxautodev.halp.Modules.modules;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
 
@@ -30,4 +35,88 @@ public class CoreTest {
         List<ClassInfo> expected = asList(classInfo(NestedArrays.class.getName(), "java.lang.Object"));
         assertDepsEqual(actual, expected);
     }
+
+    @Test public void impact() {
+        ClassGraph graph = ClassGraph.of(asList(
+            classInfo("app.Main", "core.Service"),
+            classInfo("app.MainTest", "app.Main"),
+            classInfo("core.Service", "ports.db.Repository"),
+            classInfo("core.ServiceTest", "core.Service"),
+            classInfo("ports.db.Repository"),
+            classInfo("other.Unrelated", "java.lang.Object")));
+
+        assertEquals(new HashSet(asList("core.Service")), graph.dependents("ports.db.Repository"));
+
+        Core.Impact impact = Core.impact(
+            graph,
+            asList("ports.db.Repository"),
+            modules(
+                module("app").include("app.**"),
+                module("core").include("core.**"),
+                module("other").include("other.**")),
+            asList("**Test"));
+
+        assertEquals(new HashSet(asList("app.Main", "app.MainTest", "core.Service", "core.ServiceTest", "ports.db.Repository")), impact.classes());
+        assertEquals(new HashSet(asList("app", "core")), impact.modules());
+        assertEquals(new HashSet(asList("app.MainTest", "core.ServiceTest")), impact.tests());
+    }
+
+    @Test public void async() throws Exception {
+        CompletableFuture<List<ClassInfo>> cycles = Core.analyzeClasspathAsync("com.coxautodev.halp.packageCycle.**");
+        CompletableFuture<List<ClassInfo>> aNeedsB = Core.analyzeClasspathAsync("com.coxautodev.halp.aneedsb.**");
+
+        CompletableFuture<List<String>> packageCycle = Core.firstPackageCycleAsync(cycles);
+        CompletableFuture<List<String>> noPackageCycle = Core.firstPackageCycleAsync(aNeedsB);
+        CompletableFuture<Core.ModuleInspection> inspection = Core.inspectModuleAsync(
+            aNeedsB, module("a").include("**.aneedsb.a.*").build());
+
+        assertNotNull(packageCycle.get());
+        assertNull(noPackageCycle.get());
+        assertEquals(1, inspection.get().undeclared().size());
+    }
+
+    @Test public void layers() {
+        Core.Layering layering = Core.inspectLayers(
+            asList(
+                classInfo("app.Main", "core.Service"),
+                classInfo("core.Service", "ports.Repository"),
+                classInfo("ports.Repository", "core.Model"),
+                classInfo("core.Model")),
+            asList("ports.**", "core.**", "app.**"));
+
+        assertEquals(1, layering.violations().size());
+        assertEquals("ports.Repository", layering.violations().get(0).from());
+        assertEquals("core.Model", layering.violations().get(0).to());
+
+        // core and ports form a cycle, so they share a level below app
+        assertEquals(Integer.valueOf(0), layering.packageLevels().get("core"));
+        assertEquals(Integer.valueOf(0), layering.packageLevels().get("ports"));
+        assertEquals(Integer.valueOf(1), layering.packageLevels().get("app"));
+
+        // layers may split a package, so edges within one are checked too
+        Core.Layering split = Core.inspectLayers(
+            asList(
+                classInfo("mixed.Low", "mixed.High"),
+                classInfo("mixed.High")),
+            asList("mixed.Low", "mixed.High"));
+        assertEquals(1, split.violations().size());
+        assertEquals("mixed.High", split.violations().get(0).to());
+    }
+
+    @Test public void analysisDepth() {
+        String port = "com.coxautodev.halp.apiSurface.Port";
+
+        ClassInfo full = Core.analyzeClasspath(port).get(0);
+        assertEquals(Analyzer.Depth.FULL, full.depth());
+        assertTrue(full.dependencies().contains("java.util.ArrayList"));
+
+        ClassInfo api = Core.analyzeClasspath(Analyzer.Depth.API, port).get(0);
+        assertEquals(Analyzer.Depth.API, api.depth());
+        assertEquals(new HashSet(asList("java.lang.Object", "java.lang.Thread", "java.util.Collection", "java.lang.String",
+            "com.coxautodev.halp.apiSurface.Contract", "com.coxautodev.halp.apiSurface.Marker")), api.dependencies());
+
+        ClassInfo publicApi = Core.analyzeClasspath(Analyzer.Depth.PUBLIC_API, port).get(0);
+        assertEquals(new HashSet(asList("java.lang.Object", "java.util.Collection", "java.lang.String",
+            "com.coxautodev.halp.apiSurface.Contract", "com.coxautodev.halp.apiSurface.Marker")), publicApi.dependencies());
+    }
 }
@@ -0,0 +1,64 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class CycleBreakerTest {
+
+    private static ClassInfo weighted(String name, String dependency, int weight) {
+        return new ClassInfo() {
+            public String name() { return name; }
+            public Set<String> dependencies() { return new HashSet(asList(dependency)); }
+            public int weight(String d) { return d.equals(dependency) ? weight : 0; }
+        };
+    }
+
+    @Test public void cycleCuts() {
+        ClassInfo full = Core.analyzeClasspath("com.coxautodev.halp.apiSurface.Port").get(0);
+        // new ArrayList() references it from the NEW and the constructor call
+        assertEquals(2, full.weight("java.util.ArrayList"));
+        assertEquals(0, full.weight("java.util.Map"));
+
+        List<ClassInfo> deps = asList(
+            weighted("p.a.A", "p.b.B", 5),
+            weighted("p.a.C", "p.b.B", 2),
+            weighted("p.b.B", "p.a.A", 1),
+            weighted("p.b.D", "p.a.C", 3));
+        List<CycleBreaker.Cut> cuts = Core.packageCycleCuts(deps);
+        assertEquals(1, cuts.size());
+        assertEquals("p.b", cuts.get(0).from());
+        assertEquals("p.a", cuts.get(0).to());
+        assertEquals(4, cuts.get(0).weight());
+        assertEquals(asList("p.b.D", "p.b.B"), cuts.get(0).responsible());
+    }
+
+    @Test public void cycleCutsBreakEveryCycle() {
+        Random random = new Random(7);
+        List<ClassInfo> deps = new ArrayList();
+        for (int i = 0; i < 3000; i++) {
+            deps.add(weighted("c" + random.nextInt(500), "c" + random.nextInt(500), 1 + random.nextInt(10)));
+        }
+        assertNotNull(ClassGraph.of(deps).firstCycle());
+
+        List<ClassInfo> remaining = new ArrayList();
+        List<CycleBreaker.Cut> cuts = Core.classCycleCuts(deps);
+        for (ClassInfo c : deps) {
+            String d = c.dependencies().iterator().next();
+            if (cuts.stream().noneMatch(cut -> cut.from().equals(c.name()) && cut.to().equals(d))) {
+                remaining.add(c);
+            }
+        }
+        assertNull(ClassGraph.of(remaining).firstCycle());
+        for (int i = 1; i < cuts.size(); i++) {
+            assertTrue(cuts.get(i - 1).weight() <= cuts.get(i).weight());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.coxautodev.halp;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static com.coxautodev.halp.Modules.module;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class DaemonTest {
+
+    @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Daemon daemon;
+    private static Daemon.Client client;
+
+    @BeforeClass public static void start() throws Exception {
+        System.setProperty("halp.daemon.dir", tmp.getRoot().getPath());
+        daemon = new Daemon(0, asList("com.coxautodev.halp.**")).start();
+        client = new Daemon.Client(daemon.port());
+    }
+
+    @AfterClass public static void stop() throws Exception {
+        daemon.close();
+        System.clearProperty("halp.daemon.dir");
+    }
+
+    @Test public void classCycle() {
+        assertNotNull(client.firstClassCycle(asList("com.coxautodev.halp.classCycle.*")));
+        assertNull(client.firstClassCycle(asList("com.coxautodev.halp.aneedsb.**")));
+    }
+
+    @Test(expected = Daemon.Refused.class) public void uncoveredIncludes() {
+        client.firstClassCycle(asList("org.junit.**"));
+    }
+
+    @Test public void coverage() {
+        assertTrue(Patterns.covers("com.coxautodev.halp.**", "com.coxautodev.halp.classCycle.*"));
+        assertTrue(Patterns.covers("com.**", "com.*.halp.**"));
+        assertFalse(Patterns.covers("com.coxautodev.halp.*", "com.coxautodev.halp.**"));
+        assertFalse(Patterns.covers("com.coxautodev.halp.**", "com.**"));
+    }
+
+    @Test(expected = Daemon.Refused.class) public void otherClasspath() throws Exception {
+        try (Daemon other = new Daemon(0, asList("com.coxautodev.halp.**"), Collections::emptyList).start()) {
+            new Daemon.Client(other.port()).firstClassCycle(asList("com.coxautodev.halp.classCycle.*"));
+        }
+    }
+
+    @Test public void unchangedClasspathIsNotReread() {
+        assertFalse(daemon.refresh());
+    }
+
+    @Test public void listsSurviveTheWire() {
+        List<String> includes = asList("com\\.foo\\.(a|b){1,2}", "a\tb", "", "x,y\\");
+        assertEquals(includes, Daemon.split(Daemon.join(includes)));
+        assertEquals(Collections.emptyList(), Daemon.split(Daemon.join(Collections.emptyList())));
+        assertEquals("com\\.foo,{1,2}", Daemon.unescape(Daemon.escape("com\\.foo,{1,2}")));
+    }
+
+    @Test public void regexIncludes() {
+        // refused as not provably covered, but parsed whole rather than split at the comma
+        try {
+            client.firstClassCycle(asList("com\\.coxautodev\\.halp\\.(classCycle){1,2}\\..*"));
+            fail();
+        }
+        catch (Daemon.Refused e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("(classCycle){1,2}"));
+        }
+    }
+
+    @Test public void shutdownNeedsToken() throws Exception {
+        try (Daemon other = new Daemon(0, asList("com.coxautodev.halp.aneedsb.**")).start()) {
+            Daemon.Client c = new Daemon.Client(other.port());
+            assertTrue(Daemon.tokenFile(other.port()).exists());
+            try {
+                c.request("SHUTDOWN", "guess");
+                fail();
+            }
+            catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("token"));
+            }
+            assertTrue(c.ping());
+
+            c.shutdown();
+            for (int i = 0; i < 100 && c.ping(); i++) {
+                Thread.sleep(20);
+            }
+            assertFalse(c.ping());
+            assertFalse(Daemon.tokenFile(other.port()).exists());
+        }
+    }
+
+    @Test public void survivesDroppedConnections() throws Exception {
+        // a client killed mid-request resets the connection
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), daemon.port());
+        s.getOutputStream().write("CLASS_CY".getBytes(StandardCharsets.UTF_8));
+        s.setSoLinger(true, 0);
+        s.close();
+
+        assertTrue(client.ping());
+        assertNotNull(client.firstClassCycle(asList("com.coxautodev.halp.classCycle.*")));
+    }
+
+    @Test public void silentDaemonTimesOut() throws Exception {
+        // connections land in the backlog but are never answered
+        try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            assertFalse(new Daemon.Client(silent.getLocalPort(), 200).ping());
+        }
+    }
+
+    @Test public void packageCycle() {
+        assertNotNull(client.firstPackageCycle(asList("com.coxautodev.halp.packageCycle.**")));
+    }
+
+    @Test public void moduleBoundaries() {
+        Core.ModuleInspection r = client.inspectModule(
+            asList("com.coxautodev.halp.aneedsb.**"),
+            module("a").include("**.aneedsb.a.*").build());
+        assertTrue(r.undeclared().contains("com.coxautodev.halp.aneedsb.b.B"));
+    }
+
+    @Test public void reachability() {
+        List<String> path = client.path(
+            asList("com.coxautodev.halp.aneedsb.**"),
+            "com.coxautodev.halp.aneedsb.a.A",
+            "com.coxautodev.halp.aneedsb.b.B");
+        assertEquals(asList("com.coxautodev.halp.aneedsb.a.A", "com.coxautodev.halp.aneedsb.b.B"), path);
+    }
+}
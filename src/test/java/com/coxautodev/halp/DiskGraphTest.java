@@ -0,0 +1,37 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+
+import static com.coxautodev.halp.Modules.module;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class DiskGraphTest {
+
+    @Test public void boundedAnalysis() {
+        // a budget this small forces every few edges to be spilled to disk
+        try (DiskGraph graph = Core.analyzeClasspathBounded(96, asList("com.coxautodev.halp.packageCycle.**", "com.coxautodev.halp.aneedsb.**"))) {
+            assertNotNull(graph.firstClassCycle());
+            assertNotNull(graph.firstPackageCycle());
+
+            Core.ModuleInspection r = graph.inspectModule(module("a").include("**.aneedsb.a.*").build());
+            assertEquals(new HashSet(asList("com.coxautodev.halp.aneedsb.b.B")), r.undeclared());
+        }
+        try (DiskGraph graph = Core.analyzeClasspathBounded(96, asList("com.coxautodev.halp.aneedsb.**"))) {
+            assertNull(graph.firstClassCycle());
+            assertNull(graph.firstPackageCycle());
+        }
+    }
+
+    @Test public void boundedAnalysisMergesInPasses() {
+        // hundreds of runs, more than are merged at once
+        Iterable<String> everything = asList("com.coxautodev.halp.**");
+        try (DiskGraph spilled = Core.analyzeClasspathBounded(96, everything);
+             DiskGraph inMemory = Core.analyzeClasspathBounded(1 << 24, everything)) {
+            assertEquals(inMemory.size(), spilled.size());
+            assertEquals(inMemory.edgeCount(), spilled.edgeCount());
+        }
+    }
+}
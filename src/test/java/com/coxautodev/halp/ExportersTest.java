@@ -0,0 +1,73 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+
+import static com.coxautodev.halp.Core.classInfo;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+public class ExportersTest {
+
+    /* names no real class has, but that a writer must not pass through as is */
+    private static final Graph awkward = Graph.of(asList(
+        classInfo("a.Quote\"Back\\slash", "b.Less<Amp&Greater>"),
+        classInfo("b.Less<Amp&Greater>", "c.Tab\tNewline\n")));
+
+    private static String export(Exporters.Exporter exporter, Graph graph) throws Exception {
+        StringWriter out = new StringWriter();
+        Exporters.export(exporter, graph, Exporters.Granularity.CLASS, out);
+        return out.toString();
+    }
+
+    @Test public void printClassInfo() {
+        String printed = Core.printClassInfo(asList(classInfo("a.A", "b.B", "a.C"), classInfo("b.B")));
+        assertEquals("a.A [\n    a.C\n    b.B\n]\nb.B [\n]\n", printed);
+    }
+
+    @Test public void exportDot() throws Exception {
+        StringWriter out = new StringWriter();
+        Exporters.export(
+            Exporters.dot,
+            Graph.of(asList(classInfo("b.B$Inner", "a.A"), classInfo("a.A", "b.B", "a.C"))),
+            Exporters.Granularity.PACKAGE,
+            out);
+
+        assertEquals("digraph dependencies {\n  \"a\";\n  \"b\";\n  \"a\" -> \"b\";\n  \"b\" -> \"a\";\n}\n", out.toString());
+    }
+
+    @Test public void jsonIsWellFormed() throws Exception {
+        ScriptEngine js = new ScriptEngineManager().getEngineByName("javascript");
+        assumeNotNull(js);
+        js.put("exported", export(Exporters.json, awkward));
+        Map<String, Object> edge = (Map) js.eval("JSON.parse(exported).edges[1]");
+
+        assertEquals(3, ((Number) js.eval("JSON.parse(exported).nodes.length")).intValue());
+        assertEquals(true, js.eval("JSON.parse(exported).nodes[0].analyzed"));
+        assertEquals("b.Less<Amp&Greater>", edge.get("from"));
+        assertEquals("c.Tab\tNewline\n", edge.get("to"));
+        assertEquals("a.Quote\"Back\\slash", js.eval("JSON.parse(exported).edges[0].from"));
+    }
+
+    @Test public void graphmlIsWellFormed() throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new InputSource(new StringReader(export(Exporters.graphml, awkward))));
+        NodeList desc = doc.getElementsByTagName("desc");
+
+        assertEquals(3, desc.getLength());
+        assertEquals("a.Quote\"Back\\slash", desc.item(0).getTextContent());
+        assertEquals("b.Less<Amp&Greater>", desc.item(1).getTextContent());
+        assertEquals("c.Tab\tNewline\n", desc.item(2).getTextContent());
+        assertEquals(2, doc.getElementsByTagName("edge").getLength());
+    }
+}
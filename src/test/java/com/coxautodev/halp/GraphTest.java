@@ -0,0 +1,28 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+
+import static com.coxautodev.halp.Modules.module;
+import static com.coxautodev.halp.Modules.modules;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class GraphTest {
+
+    @Test public void graphReport() {
+        Graph graph = Core.graph("com.coxautodev.halp.aneedsb.**");
+        Graph.Report report = graph.verify(Graph.spec()
+            .noClassCycles()
+            .modules(modules(module("a").include("**.aneedsb.a.*")))
+            .noUnmodularizedBehavior());
+
+        assertFalse(report.passed());
+        assertNull(report.classCycle());
+        assertEquals(new HashSet(asList("com.coxautodev.halp.aneedsb.b.B")), report.modules().get(0).undeclared());
+        assertEquals(new HashSet(asList("com.coxautodev.halp.aneedsb.b.B")), report.unmodularized());
+        assertSame(graph.classView(), graph.classView());
+        assertEquals(2, report.violations().size());
+    }
+}
@@ -0,0 +1,72 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.coxautodev.halp.Core.classInfo;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class IncrementalGraphTest {
+
+    @Test public void incrementalCycles() {
+        IncrementalGraph graph = IncrementalGraph.of(Core.analyzeClasspath("com.coxautodev.halp.aneedsb.**"));
+        String a = "com.coxautodev.halp.aneedsb.a.A";
+        String b = "com.coxautodev.halp.aneedsb.b.B";
+        assertNull(graph.firstClassCycle());
+        assertTrue(graph.classOrder().indexOf(b) < graph.classOrder().indexOf(a));
+
+        assertEquals(asList(b, a, b), graph.addDependency(b + "$Inner", a));
+        assertEquals(asList(b, a, b), graph.firstClassCycle());
+        assertNotNull(graph.firstPackageCycle());
+
+        assertTrue(graph.removeDependency(b + "$Inner", a));
+        assertNull(graph.firstClassCycle());
+        assertNull(graph.firstPackageCycle());
+
+        // only the packages form a cycle
+        assertEquals(asList("com.coxautodev.halp.aneedsb.b", "com.coxautodev.halp.aneedsb.a", "com.coxautodev.halp.aneedsb.b"),
+            graph.addDependency("com.coxautodev.halp.aneedsb.b.C", "com.coxautodev.halp.aneedsb.a.D"));
+        assertNull(graph.firstClassCycle());
+    }
+
+    @Test public void dynamicOrderMatchesFullRecomputation() {
+        Random random = new Random(42);
+        DynamicOrder order = new DynamicOrder();
+        List<String[]> edges = new ArrayList();
+        for (int step = 0; step < 2000; step++) {
+            if (edges.isEmpty() || random.nextInt(3) > 0) {
+                String[] e = {"n" + random.nextInt(30), "n" + random.nextInt(30)};
+                List<String> cycle = order.add(e[0], e[1]);
+                if (!e[0].equals(e[1])) {
+                    edges.add(e);
+                }
+                if (cycle != null) {
+                    assertEquals(e[0], cycle.get(0));
+                    assertEquals(e[1], cycle.get(1));
+                    assertEquals(e[0], cycle.get(cycle.size() - 1));
+                }
+            }
+            else {
+                String[] e = edges.remove(random.nextInt(edges.size()));
+                assertTrue(order.remove(e[0], e[1]));
+            }
+
+            List<ClassInfo> classes = new ArrayList();
+            for (String[] e : edges) {
+                classes.add(classInfo(e[0], e[1]));
+            }
+            assertEquals(ClassGraph.of(classes).firstCycle() != null, order.hasCycle());
+
+            if (!order.hasCycle()) {
+                List<String> sorted = order.order();
+                for (String[] e : edges) {
+                    assertTrue(sorted.indexOf(e[1]) < sorted.indexOf(e[0]));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.coxautodev.halp;
+
+import com.coxautodev.halp.aneedsb.a.A;
+import com.coxautodev.halp.aneedsb.b.B;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class IndexTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static void copy(ZipOutputStream out, String name, Class<?> c) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(TestClasses.bytes(c));
+        out.closeEntry();
+    }
+
+    private File jar(String name, Class<?> a, Class<?> b, byte[] index) throws IOException {
+        File jar = tmp.newFile(name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            copy(out, TestClasses.entry(A.class), a);
+            copy(out, TestClasses.entry(B.class), b);
+            if (index != null) {
+                out.putNextEntry(new ZipEntry(Index.ENTRY));
+                out.write(index);
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static List<ClassInfo> analyze(File jar) throws IOException {
+        List<ClassInfo> output = new ArrayList();
+        URL url = jar.toURI().toURL();
+        Scanner.analyze(s -> true, output::add, () -> singletonList(url));
+        return output;
+    }
+
+    @Test public void indexedJarMatchesAnalysis() throws Exception {
+        File jar = jar("indexed.jar", A.class, B.class, null);
+        List<ClassInfo> expected = analyze(jar);
+
+        Index.write(jar);
+        List<ClassInfo> actual = analyze(jar);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).name(), actual.get(i).name());
+            assertEquals(expected.get(i).dependencies(), actual.get(i).dependencies());
+        }
+    }
+
+    @Test public void staleIndexEntriesAreReanalyzed() throws Exception {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (ZipFile original = new ZipFile(jar("original.jar", A.class, B.class, null))) {
+            Index.write(original, index);
+        }
+
+        // the entry for A now holds different bytes than the ones indexed
+        File stale = jar("stale.jar", B.class, B.class, index.toByteArray());
+
+        List<ClassInfo> actual = analyze(stale);
+        assertEquals(B.class.getName(), actual.get(0).name());
+    }
+
+    @Test public void corruptIndexIsIgnored() throws Exception {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (ZipFile original = new ZipFile(jar("original.jar", A.class, B.class, null))) {
+            Index.write(original, index);
+        }
+        byte[] full = index.toByteArray();
+        List<ClassInfo> expected = analyze(jar("plain.jar", A.class, B.class, null));
+
+        // cut off in the middle of the records
+        File truncated = jar("truncated.jar", A.class, B.class, Arrays.copyOf(full, full.length - 6));
+        try (ZipFile zip = new ZipFile(truncated)) {
+            assertNull(Index.read(zip, s -> true));
+        }
+        assertEquals(expected.size(), analyze(truncated).size());
+
+        // a string id past the end of the string table
+        byte[] garbled = full.clone();
+        Arrays.fill(garbled, full.length - 4, full.length, (byte) 0x7f);
+        File outOfRange = jar("garbled.jar", A.class, B.class, garbled);
+        try (ZipFile zip = new ZipFile(outOfRange)) {
+            assertNull(Index.read(zip, s -> true));
+        }
+        assertEquals(expected.size(), analyze(outOfRange).size());
+    }
+
+    @Test public void indexFromOtherAnalyzerIsIgnored() throws Exception {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (ZipFile original = new ZipFile(jar("original.jar", A.class, B.class, null))) {
+            Index.write(original, index);
+        }
+        byte[] old = index.toByteArray();
+        // the analyzer version follows the magic number and the format version
+        ByteBuffer.wrap(old).putInt(8, Analyzer.VERSION - 1);
+
+        try (ZipFile zip = new ZipFile(jar("old.jar", A.class, B.class, old))) {
+            assertNull(Index.read(zip, s -> true));
+        }
+    }
+
+    @Test public void onlyMatchingRecordsAreDecoded() throws Exception {
+        File jar = jar("indexed.jar", A.class, B.class, null);
+        Index.write(jar);
+        try (ZipFile zip = new ZipFile(jar)) {
+            Map<String, Index.Indexed> index = Index.read(zip, B.class.getName()::equals);
+            assertEquals(singleton(TestClasses.entry(B.class)), index.keySet());
+            assertEquals(B.class.getName(), index.get(TestClasses.entry(B.class)).info.name());
+        }
+    }
+
+    @Test public void severalJarsAreIndexed() throws Exception {
+        File small = jar("small.jar", A.class, A.class, null);
+        File large = jar("large.jar", A.class, B.class, null);
+        Index.write(Arrays.asList(small, large));
+
+        for (File jar : Arrays.asList(small, large)) {
+            try (ZipFile zip = new ZipFile(jar)) {
+                assertEquals(2, Index.read(zip, s -> true).size());
+            }
+        }
+    }
+}
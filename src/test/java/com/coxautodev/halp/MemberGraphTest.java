@@ -0,0 +1,46 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class MemberGraphTest {
+
+    @Test public void memberLevelDependencies() {
+        MemberGraph members = new MemberGraph();
+        Core.analyzeClasspath(members, asList("com.coxautodev.halp.aneedsb.**"));
+
+        assertEquals(
+            new HashSet(asList("com.coxautodev.halp.aneedsb.a.A#<init>()V")),
+            members.users("com.coxautodev.halp.aneedsb.b.B", "<init>"));
+        assertTrue(members
+            .uses("com.coxautodev.halp.aneedsb.a.A", "<init>")
+            .contains("com.coxautodev.halp.aneedsb.a.A#b:Lcom/coxautodev/halp/aneedsb/b/B;"));
+        assertEquals(
+            members.users("com.coxautodev.halp.aneedsb.b.B", "<init>"),
+            members.users("com.coxautodev.halp.aneedsb.b.B", null));
+
+        // analyzing more classes afterwards is reflected in later queries
+        int before = members.memberCount();
+        Core.analyzeClasspath(members, asList("com.coxautodev.halp.packageCycle.**"));
+        assertTrue(members.memberCount() > before);
+        assertEquals(
+            new HashSet(asList("com.coxautodev.halp.aneedsb.a.A#<init>()V")),
+            members.users("com.coxautodev.halp.aneedsb.b.B", "<init>"));
+    }
+
+    @Test public void methodReferences() {
+        MemberGraph members = new MemberGraph();
+        Core.analyzeClasspath(members, asList("com.coxautodev.halp.methodReference.**"));
+
+        assertEquals(
+            new HashSet(asList("com.coxautodev.halp.methodReference.Caller#task()Ljava/lang/Runnable;")),
+            members.users("com.coxautodev.halp.methodReference.Callee", "work"));
+
+        ClassInfo caller = Core.analyzeClasspath("com.coxautodev.halp.methodReference.Caller").get(0);
+        assertTrue(caller.dependencies().contains("com.coxautodev.halp.methodReference.Callee"));
+    }
+}
@@ -0,0 +1,49 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import static com.coxautodev.halp.Core.classInfo;
+import static com.coxautodev.halp.Modules.module;
+import static com.coxautodev.halp.Modules.modules;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test public void couplingMetrics() throws Exception {
+        ClassGraph graph = ClassGraph.of(asList(
+            classInfo("app.Main", "core.Service", "core.Model", "java.lang.Object"),
+            classInfo("core.Service", "ports.Repository"),
+            classInfo("core.Model"),
+            classInfo("ports.Repository", "core.Model")));
+
+        List<Metrics.Coupling> packages = Metrics.packages(graph);
+        assertEquals(asList("app", "core", "ports"), packages.stream().map(Metrics.Coupling::name).collect(toList()));
+
+        Metrics.Coupling core = packages.get(1);
+        assertEquals(2, core.afferent());
+        assertEquals(1, core.efferent());
+        assertEquals(1 / 3.0, core.instability(), 1e-9);
+
+        List<Metrics.Coupling> modules = Metrics.modules(graph, modules(
+            module("app").include("app.**"),
+            module("inner").include("core.**", "ports.**")));
+        Metrics.Coupling inner = modules.stream().filter(m -> m.name().equals("inner")).findFirst().get();
+        assertEquals(0, inner.efferent());
+        assertEquals(1, inner.afferent());
+
+        // classes no module includes still depend on the modules they use
+        List<Metrics.Coupling> partial = Metrics.modules(graph, modules(module("inner").include("core.**", "ports.**")));
+        assertEquals(1, partial.size());
+        assertEquals(1, partial.get(0).afferent());
+        assertEquals(0, partial.get(0).efferent());
+
+        StringWriter out = new StringWriter();
+        Exporters.metrics(packages, out);
+        assertTrue(out.toString().contains("{\"id\":\"core\",\"afferent\":2,\"efferent\":1,"));
+    }
+}
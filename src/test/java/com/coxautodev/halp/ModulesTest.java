@@ -0,0 +1,15 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import static com.coxautodev.halp.Modules.module;
+import static com.coxautodev.halp.Modules.modules;
+
+public class ModulesTest {
+
+    @Test(expected = IllegalArgumentException.class) public void overlappingModules() {
+        modules(
+            module("ports").include("ports.**"),
+            module("db").include("ports.db.*"));
+    }
+}
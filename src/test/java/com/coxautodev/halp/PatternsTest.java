@@ -0,0 +1,18 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PatternsTest {
+
+    @Test public void patternIntersection() {
+        String sample = Patterns.intersection("ports.**", "ports.db.*");
+        assertTrue(Patterns.pattern("ports.**").matches(sample));
+        assertTrue(Patterns.pattern("ports.db.*").matches(sample));
+        assertEquals("a.b", Patterns.intersection("**.b", "a.*"));
+        assertNull(Patterns.intersection("ports.*.*", "ports.db.mysql.**"));
+        assertNull(Patterns.intersection("app.**", "core.**"));
+        assertNull(Patterns.intersection("a.*", "a.*.*"));
+    }
+}
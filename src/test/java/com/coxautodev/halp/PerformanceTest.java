@@ -0,0 +1,157 @@
+package com.coxautodev.halp;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static com.coxautodev.halp.Modules.module;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Guards the hot paths against allocation and throughput regressions, using
+ * synthetic classes of a fixed shape and the budgets in
+ * performance-budgets.properties.
+ */
+public class PerformanceTest {
+
+    private static final int CLASSES = 2000;
+    private static final int PACKAGES = 20;
+    private static final int REFERENCES = 8;
+
+    @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final List<byte[]> bytes = new ArrayList();
+    private static final List<ClassInfo> classes = new ArrayList();
+    private static final Properties budgets = new Properties();
+    private static URL directory;
+
+    private static String name(int i) {
+        return "synthetic/p" + (i % PACKAGES) + "/C" + i;
+    }
+
+    /*
+     * Each class extends Object, has fields of and calls a static method on a
+     * fixed set of other synthetic classes.
+     */
+    private static byte[] synthesize(int i) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name(i), null, "java/lang/Object", null);
+        for (int r = 1; r <= REFERENCES; r++) {
+            String other = name((i * 31 + r * 7) % CLASSES);
+            cw.visitField(Opcodes.ACC_PRIVATE, "f" + r, "L" + other + ";", null, null).visitEnd();
+        }
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "()V", null, null);
+        mv.visitCode();
+        for (int r = 1; r <= REFERENCES; r++) {
+            String other = name((i * 17 + r * 13) % CLASSES);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, other, "run", "()V", false);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    @BeforeClass public static void setup() throws IOException {
+        try (InputStream in = PerformanceTest.class.getResourceAsStream("/performance-budgets.properties")) {
+            budgets.load(in);
+        }
+
+        File root = tmp.newFolder("classes");
+        for (int i = 0; i < CLASSES; i++) {
+            byte[] b = synthesize(i);
+            bytes.add(b);
+            File f = new File(root, name(i) + ".class");
+            f.getParentFile().mkdirs();
+            try (FileOutputStream out = new FileOutputStream(f)) {
+                out.write(b);
+            }
+            classes.add(Analyzer.create(new ByteArrayInputStream(b)));
+        }
+        directory = root.toURI().toURL();
+    }
+
+    private static double budget(String key) {
+        return Double.parseDouble(budgets.getProperty(key));
+    }
+
+    @FunctionalInterface
+    private interface Work {
+        void run() throws IOException;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /*
+     * Runs the work a few times to warm up, then measures several runs and
+     * checks the best of them against the budgets for the given key, so that
+     * a single run disturbed by GC or a busy host does not fail the build.
+     */
+    private static void measure(String key, Work work) throws IOException {
+        for (int i = 0; i < 5; i++) {
+            work.run();
+        }
+
+        long elapsed = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            work.run();
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+            allocated = allocatedBefore >= 0 ? Math.min(allocated, allocatedBytes() - allocatedBefore) : -1;
+        }
+
+        double classesPerSecond = CLASSES / (elapsed / 1e9);
+        double minClassesPerSecond = budget(key + ".minClassesPerSecond");
+        assertTrue(key + ": " + (long) classesPerSecond + " classes/s, budget is at least " + (long) minClassesPerSecond,
+            classesPerSecond >= minClassesPerSecond);
+
+        if (allocated >= 0) {
+            double bytesPerClass = allocated / (double) CLASSES;
+            double maxBytesPerClass = budget(key + ".maxAllocatedBytesPerClass");
+            assertTrue(key + ": " + (long) bytesPerClass + " bytes/class, budget is at most " + (long) maxBytesPerClass,
+                bytesPerClass <= maxBytesPerClass);
+        }
+    }
+
+    @Test public void analyzer() throws IOException {
+        measure("analyzer", () -> {
+            for (byte[] b : bytes) {
+                Analyzer.create(new ByteArrayInputStream(b));
+            }
+        });
+    }
+
+    @Test public void scanner() throws IOException {
+        measure("scanner", () -> Scanner.scan(s -> true, in -> {}, () -> singletonList(directory)));
+    }
+
+    @Test public void inspectModule() throws IOException {
+        Module m = module("p0").include("synthetic.p0.*").use("synthetic.p1.*").build();
+        measure("inspectModule", () -> Core.inspectModule(classes, m));
+    }
+}
@@ -0,0 +1,101 @@
+package com.coxautodev.halp;
+
+import com.coxautodev.halp.aneedsb.a.A;
+import com.coxautodev.halp.aneedsb.b.B;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public class ScannerTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    /* a jar holding the bytes of a and b under the names of A and B */
+    private URL jar(String name, Class<?> a, Class<?> b) throws IOException {
+        File jar = tmp.newFile(name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            for (Class<?>[] c : new Class<?>[][] {{A.class, a}, {B.class, b}}) {
+                out.putNextEntry(new ZipEntry(TestClasses.entry(c[0])));
+                out.write(TestClasses.bytes(c[1]));
+                out.closeEntry();
+            }
+        }
+        return jar.toURI().toURL();
+    }
+
+    @Test public void identicalCopiesAreAnalyzedOnce() throws Exception {
+        URL first = jar("first.jar", A.class, B.class);
+        URL second = jar("second.jar", A.class, B.class);
+
+        List<ClassInfo> output = new ArrayList();
+        Scanner.analyze(s -> true, output::add, () -> asList(first, second));
+        assertEquals(asList(A.class.getName(), B.class.getName()), output.stream().map(ClassInfo::name).collect(toList()));
+
+        List<Boolean> identical = new ArrayList();
+        Scanner.scan(s -> true, in -> {}, (className, a, b, same) -> identical.add(same), () -> asList(first, second));
+        assertEquals(asList(true, true), identical);
+
+        // the caller's own table can decide which copy comes first
+        List<String> asked = new ArrayList();
+        Set<String> seen = new HashSet();
+        output.clear();
+        Scanner.analyze(s -> true, output::add, name -> asked.add(name) && seen.add(name), () -> asList(first, second));
+        assertEquals(2, output.size());
+        assertEquals(4, asked.size());
+    }
+
+    @Test public void classpathIsExpandedAndCanonicalized() throws Exception {
+        URL first = jar("first.jar", A.class, B.class);
+        tmp.newFolder("sub");
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, "first.jar ./first.jar sub/../first.jar missing.jar");
+        File booter = tmp.newFile("booter.jar");
+        new JarOutputStream(new FileOutputStream(booter), manifest).close();
+
+        String classPath = System.getProperty("java.class.path");
+        try {
+            System.setProperty("java.class.path", booter.getPath() + File.pathSeparator + new File(Scanner.path(first)).getPath());
+            List<URL> urls = Scanner.classpathSource.urls();
+            assertEquals(asList(booter.getCanonicalFile().toURI().toURL(), first), urls);
+            assertEquals(asList(first, urls.get(0)), Scanner.largestFirst(urls));
+        }
+        finally {
+            System.setProperty("java.class.path", classPath);
+        }
+    }
+
+    @Test public void differingCopiesAreConflicts() throws Exception {
+        URL first = jar("first.jar", A.class, B.class);
+        URL shaded = jar("shaded.jar", B.class, B.class);
+
+        List<Core.Conflict> conflicts = Core.findClasspathConflicts(asList("**"), () -> asList(first, shaded));
+        assertEquals(1, conflicts.size());
+        assertEquals(A.class.getName(), conflicts.get(0).className());
+        assertEquals(asList(Scanner.path(first), Scanner.path(shaded)), conflicts.get(0).artifacts());
+
+        // the first copy in classpath order is the one analyzed
+        List<ClassInfo> output = new ArrayList();
+        Scanner.analyze(s -> true, output::add, () -> asList(shaded, first));
+        assertEquals(asList(B.class.getName(), B.class.getName()), output.stream().map(ClassInfo::name).collect(toList()));
+    }
+}
@@ -0,0 +1,23 @@
+package com.coxautodev.halp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The class files of test classes, e.g. to put them in jars or hand them to
+ * the agent.
+ */
+final class TestClasses {
+
+    private TestClasses() {}
+
+    static String entry(Class<?> c) {
+        return c.getName().replace('.', '/') + ".class";
+    }
+
+    static byte[] bytes(Class<?> c) throws IOException {
+        try (InputStream in = c.getClassLoader().getResourceAsStream(entry(c))) {
+            return Index.readAll(in);
+        }
+    }
+}
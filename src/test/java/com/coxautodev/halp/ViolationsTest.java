@@ -0,0 +1,25 @@
+package com.coxautodev.halp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ViolationsTest {
+
+    @Test public void truncatedViolations() {
+        Violations violations = new Violations();
+        for (int i = 999; i >= 0; i--) {
+            violations.add("big", String.format("dep%04d", i));
+        }
+        violations.add("small", "dep");
+
+        assertEquals(1001, violations.size());
+        assertEquals("big (1000):\n    dep0000\n    dep0001\n    ... and 998 more\nsmall (1):\n    dep\n", violations.render(2));
+        assertEquals(1001, violations.list().size());
+
+        // rendering leaves the order violations were added in alone
+        assertEquals("dep0999", violations.list().get(0).item());
+        assertTrue(violations.toString().startsWith("big (1000):\n    dep0000\n"));
+        assertEquals("dep0999", violations.list().get(0).item());
+    }
+}
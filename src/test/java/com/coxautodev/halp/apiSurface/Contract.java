@@ -0,0 +1,8 @@
+package com.coxautodev.halp.apiSurface;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Contract {
+}
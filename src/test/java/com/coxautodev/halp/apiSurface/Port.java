@@ -0,0 +1,17 @@
+package com.coxautodev.halp.apiSurface;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+@Contract
+public class Port {
+
+    private Thread worker;
+
+    @Marker
+    public int version;
+
+    public Collection<String> names() {
+        return new ArrayList();
+    }
+}
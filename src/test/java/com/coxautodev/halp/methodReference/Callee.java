@@ -0,0 +1,7 @@
+package com.coxautodev.halp.methodReference;
+
+public class Callee {
+
+    static void work() {
+    }
+}
@@ -0,0 +1,8 @@
+package com.coxautodev.halp.methodReference;
+
+public class Caller {
+
+    Runnable task() {
+        return Callee::work;
+    }
+}